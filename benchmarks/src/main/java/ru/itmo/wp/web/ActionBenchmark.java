@@ -0,0 +1,59 @@
+package ru.itmo.wp.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.itmo.wp.web.page.IndexPage;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding a page and its action in the {@link PageRegistry} and invoking it, as
+ * {@code FrontServlet.process} does for every request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionBenchmark {
+    private PageRegistry pageRegistry;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() throws ServletException {
+        pageRegistry = PageRegistry.newPageRegistry(IndexPage.class.getPackage().getName());
+        request = ServletMocks.newRequest(null, "GET", "/", Collections.emptyMap(), Collections.emptyMap());
+        response = ServletMocks.newResponse(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public Object lookup() {
+        return pageRegistry.getPage(IndexPage.class.getName()).getAction("action");
+    }
+
+    @Benchmark
+    public Map<String, Object> lookupAndInvoke() throws Throwable {
+        PageRegistry.Page page = pageRegistry.getPage(IndexPage.class.getName());
+        PageRegistry.Action action = page.getAction("action");
+        Map<String, Object> view = new HashMap<>();
+        action.invoke(page.newInstance(), view, request, response);
+        return view;
+    }
+}
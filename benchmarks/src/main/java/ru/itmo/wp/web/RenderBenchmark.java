@@ -0,0 +1,87 @@
+package ru.itmo.wp.web;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.itmo.wp.web.page.TicTacToePage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full rendering of {@code TicTacToePage.ftlh}: through an {@link OutputStreamWriter},
+ * which is what {@code response.getWriter()} amounts to, and through
+ * {@link Utf8ResponseWriter} without and with the pre-encoded template text.
+ *
+ * <p>The templates are read from {@code -Dtemplates.dir}, by default those of the
+ * project next to this module.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    @Param({"3", "15"})
+    private int size;
+
+    private Template template;
+    private Map<String, Object> view;
+    private Map<char[], byte[]> preEncodedText;
+
+    @Setup
+    public void setUp() throws IOException {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_31);
+        configuration.setDirectoryForTemplateLoading(new File(System.getProperty("templates.dir",
+                "../src/main/webapp/WEB-INF/templates")));
+        configuration.setDefaultEncoding(StandardCharsets.UTF_8.name());
+        configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        configuration.setLogTemplateExceptions(false);
+        template = configuration.getTemplate("TicTacToePage.ftlh");
+
+        TicTacToePage.State state = new TicTacToePage.State(size, Math.min(size, 5), false);
+        view = new HashMap<>();
+        view.put("state", state);
+        preEncodedText = Utf8ResponseWriter.newPreEncodedMap();
+    }
+
+    private void render(Writer writer) throws IOException, TemplateException {
+        template.process(view, writer);
+        writer.close();
+    }
+
+    @Benchmark
+    public void outputStreamWriter() throws IOException, TemplateException {
+        render(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void utf8Writer() throws IOException, TemplateException {
+        render(new Utf8ResponseWriter(OutputStream.nullOutputStream(), null));
+    }
+
+    @Benchmark
+    public void utf8WriterPreEncoded() throws IOException, TemplateException {
+        render(new Utf8ResponseWriter(OutputStream.nullOutputStream(), preEncodedText));
+    }
+}
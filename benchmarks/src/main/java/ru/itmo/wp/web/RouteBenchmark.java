@@ -0,0 +1,46 @@
+package ru.itmo.wp.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.itmo.wp.web.page.IndexPage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the page of a request URI, {@link PageRouter#route(String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteBenchmark {
+    private static final String BASE_PACKAGE = "ru.itmo.wp.web.page";
+
+    @Param({"/", "/ticTacToe", "/misc/help", "/unknown/page"})
+    private String uri;
+
+    private PageRouter pageRouter;
+
+    @Setup
+    public void setUp() throws Exception {
+        PageRegistry pageRegistry = PageRegistry.newPageRegistry(BASE_PACKAGE);
+        pageRouter = PageRouter.newPageRouter(pageRegistry, BASE_PACKAGE,
+                pageRegistry.getPage(IndexPage.class.getName()));
+    }
+
+    @Benchmark
+    public Object route() {
+        return pageRouter.route(uri);
+    }
+}
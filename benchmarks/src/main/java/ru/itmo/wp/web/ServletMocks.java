@@ -0,0 +1,178 @@
+package ru.itmo.wp.web;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Servlet API objects for benchmarks: dynamic proxies that answer the few calls the
+ * code under test makes and return a default value for the rest, so benchmarks run
+ * without a container and measure nothing but the code.
+ */
+public final class ServletMocks {
+    private ServletMocks() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object getDefaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * @param rootDir directory {@code getRealPath("/")} answers with.
+     */
+    public static ServletContext newServletContext(File rootDir, Map<String, String> initParameters) {
+        Map<String, Object> attributes = new HashMap<>();
+        return newProxy(ServletContext.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRealPath":
+                    return new File(rootDir, (String) args[0]).getPath();
+                case "getMimeType":
+                    String name = (String) args[0];
+                    return name.endsWith(".css") ? "text/css" : name.endsWith(".png") ? "image/png" : null;
+                case "getInitParameter":
+                    return initParameters.get((String) args[0]);
+                case "getAttribute":
+                    return attributes.get((String) args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    attributes.remove((String) args[0]);
+                    return null;
+                default:
+                    return getDefaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static ServletConfig newServletConfig(ServletContext servletContext, Map<String, String> initParameters) {
+        return newProxy(ServletConfig.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getServletContext":
+                    return servletContext;
+                case "getInitParameter":
+                    return initParameters.get((String) args[0]);
+                case "getServletName":
+                    return "frontServlet";
+                case "getInitParameterNames":
+                    return Collections.enumeration(initParameters.keySet());
+                default:
+                    return getDefaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static FilterConfig newFilterConfig(ServletContext servletContext, Map<String, String> initParameters) {
+        return newProxy(FilterConfig.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getServletContext":
+                    return servletContext;
+                case "getInitParameter":
+                    return initParameters.get((String) args[0]);
+                case "getFilterName":
+                    return "staticFilter";
+                case "getInitParameterNames":
+                    return Collections.enumeration(initParameters.keySet());
+                default:
+                    return getDefaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static HttpServletRequest newRequest(ServletContext servletContext, String method, String uri,
+                                                Map<String, String> parameters, Map<String, String> headers) {
+        return newProxy(HttpServletRequest.class, (proxy, m, args) -> {
+            switch (m.getName()) {
+                case "getMethod":
+                    return method;
+                case "getRequestURI":
+                    return uri;
+                case "getContextPath":
+                    return "";
+                case "getServletContext":
+                    return servletContext;
+                case "getParameter":
+                    return parameters.get((String) args[0]);
+                case "getParameterNames":
+                    return Collections.enumeration(parameters.keySet());
+                case "getParameterValues":
+                    String value = parameters.get((String) args[0]);
+                    return value == null ? null : new String[]{value};
+                case "getHeader":
+                    return headers.get((String) args[0]);
+                case "getDateHeader":
+                    return -1L;
+                default:
+                    return getDefaultValue(m.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @param out where the body goes.
+     */
+    public static HttpServletResponse newResponse(OutputStream out) {
+        ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        };
+        PrintWriter[] writer = new PrintWriter[1];
+        return newProxy(HttpServletResponse.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getOutputStream":
+                    return outputStream;
+                case "getWriter":
+                    if (writer[0] == null) {
+                        writer[0] = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                    }
+                    return writer[0];
+                default:
+                    return getDefaultValue(method.getReturnType());
+            }
+        });
+    }
+}
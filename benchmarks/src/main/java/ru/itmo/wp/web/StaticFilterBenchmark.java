@@ -0,0 +1,112 @@
+package ru.itmo.wp.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StaticFilter} serving {@code /css/style.css} from memory: in full, gzipped
+ * and as 304 to a matching {@code If-None-Match}.
+ *
+ * <p>The file is copied from {@code -Dwebapp.dir}, by default the web application of
+ * the project next to this module, into a temporary deployment, so the filter runs
+ * as in production.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StaticFilterBenchmark {
+    private static final String URI = "/css/style.css";
+    private static final FilterChain NOT_FOUND_CHAIN = (request, response) -> {
+        throw new IllegalStateException("Not served by the filter [uri=" + URI + "]");
+    };
+
+    @Param({"identity", "gzip", "notModified"})
+    private String variant;
+
+    private Path rootDir;
+    private StaticFilter staticFilter;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        rootDir = Files.createTempDirectory("static-filter-benchmark");
+        Files.createDirectories(rootDir.resolve("css"));
+        Files.copy(new File(System.getProperty("webapp.dir", "../src/main/webapp"), URI).toPath(),
+                rootDir.resolve("css/style.css"));
+
+        ServletContext servletContext = ServletMocks.newServletContext(rootDir.toFile(), Collections.emptyMap());
+        staticFilter = new StaticFilter();
+        staticFilter.init(ServletMocks.newFilterConfig(servletContext, Collections.emptyMap()));
+
+        Map<String, String> headers = new HashMap<>();
+        if (!"identity".equals(variant)) {
+            headers.put("Accept-Encoding", "gzip, deflate");
+        }
+        if ("notModified".equals(variant)) {
+            headers.put("If-None-Match", getEtag(servletContext));
+        }
+        request = ServletMocks.newRequest(servletContext, "GET", URI, Collections.emptyMap(), headers);
+        response = ServletMocks.newResponse(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * @return ETag the filter answers a gzip request with.
+     */
+    private String getEtag(ServletContext servletContext) throws IOException, ServletException {
+        String[] etag = new String[1];
+        HttpServletResponse response = new HttpServletResponseWrapper(
+                ServletMocks.newResponse(OutputStream.nullOutputStream())) {
+            @Override
+            public void setHeader(String name, String value) {
+                if ("ETag".equals(name)) {
+                    etag[0] = value;
+                }
+            }
+        };
+        staticFilter.doFilter(ServletMocks.newRequest(servletContext, "GET", URI, Collections.emptyMap(),
+                Collections.singletonMap("Accept-Encoding", "gzip")), response, NOT_FOUND_CHAIN);
+        return etag[0];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(rootDir.resolve("css/style.css"));
+        Files.deleteIfExists(rootDir.resolve("css"));
+        Files.deleteIfExists(rootDir);
+    }
+
+    @Benchmark
+    public void doFilter() throws IOException, ServletException {
+        staticFilter.doFilter(request, response, NOT_FOUND_CHAIN);
+    }
+}
@@ -0,0 +1,80 @@
+package ru.itmo.wp.web.page;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move and win check of {@link TicTacToePage.State}: {@code changeCell} with the
+ * incremental {@code checkGameState} (as {@code play} and {@code undo} of a move),
+ * and both checks alone, the incremental one and the full reference scan, on a board
+ * with a few stones in the middle. {@code positionCacheLookup} is what taking the phase
+ * from {@link TicTacToePositionCache} instead of the incremental check would cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameEngineBenchmark {
+    @Param({"3", "15"})
+    private int size;
+
+    private TicTacToePage.State state;
+    private int move;
+    private MethodHandle checkGameState;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        state = new TicTacToePage.State(size, Math.min(size, 5), false);
+        int center = size / 2 * size + size / 2;
+        state.play(center);
+        state.play(center + 1);
+        if (size > 3) {
+            state.play(center - size);
+            state.play(center + size + 1);
+        }
+        move = center - 1;
+
+        checkGameState = MethodHandles.privateLookupIn(TicTacToePage.State.class, MethodHandles.lookup())
+                .findVirtual(TicTacToePage.State.class, "checkGameState",
+                        MethodType.methodType(TicTacToePage.Phase.class));
+    }
+
+    @Benchmark
+    public boolean playAndUndo() {
+        int lastMove = state.getLastMove();
+        boolean played = state.play(move);
+        state.undo(move, lastMove);
+        return played;
+    }
+
+    @Benchmark
+    public Object checkGameState() throws Throwable {
+        return checkGameState.invoke(state);
+    }
+
+    @Benchmark
+    public Object checkGameStateReference() {
+        return state.checkGameStateReference();
+    }
+
+    @Benchmark
+    public Object positionCacheLookup() {
+        return TicTacToePositionCache.SHARED.get(state.getHash(state.getCanonicalSymmetry()));
+    }
+}
@@ -0,0 +1,107 @@
+package ru.itmo.wp.web.page;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java serialization of a half-played game as a session attribute, in the compact form
+ * of {@link TicTacToePage.SerializedState} and in the form it replaced: default
+ * serialization of a board of one-character strings with the phase and the side to
+ * move. The setup prints the size of the serialized attribute.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"3", "15"})
+    private int size;
+
+    @Param({"compact", "strings"})
+    private String form;
+
+    private Object attribute;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        TicTacToePage.State state = new TicTacToePage.State(size, Math.min(size, 5), false);
+        state.setGameId(1L << 40);
+        SplittableRandom random = new SplittableRandom(1);
+        while (state.getFreeCells() > size * size / 2 && state.phase == TicTacToePage.Phase.RUNNING) {
+            int cell = random.nextInt(size * size);
+            if (state.isFree(cell)) {
+                state.play(cell);
+            }
+        }
+        attribute = form.equals("compact") ? state : new StringState(state);
+        serialized = serialize(attribute);
+        System.out.println("Serialized: " + serialized.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(attribute);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Fields of the game as {@code TicTacToePage.State} kept them before the compact form.
+     */
+    private static final class StringState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int freeCells;
+        private final TicTacToePage.Phase phase;
+        private final boolean crossesMove;
+        private final String[][] cells;
+
+        private StringState(TicTacToePage.State state) {
+            int size = state.getSize();
+            freeCells = state.getFreeCells();
+            phase = state.phase;
+            crossesMove = state.getCrossesMove();
+            cells = new String[size][size];
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    int stone = state.getStone(row * size + column);
+                    cells[row][column] = stone > 0 ? "X" : (stone < 0 ? "O" : "");
+                }
+            }
+        }
+    }
+}
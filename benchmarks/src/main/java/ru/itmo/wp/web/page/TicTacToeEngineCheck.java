@@ -0,0 +1,73 @@
+package ru.itmo.wp.web.page;
+
+import java.util.SplittableRandom;
+
+/**
+ * Equivalence check of the incremental win check of {@link TicTacToePage.State}
+ * against {@code checkGameStateReference}, which scans every line of the board:
+ * random games are played on several board variants, and after every move both must
+ * give the same phase.
+ *
+ * <p>Arguments: games per variant (2000) and seed (1). Exits with 1 on the first
+ * position where they disagree, after printing it.
+ */
+public final class TicTacToeEngineCheck {
+    /**
+     * Board sizes and win lengths: the classic board, the smallest boards where a line
+     * is shorter than a side, and boards whose bits span several words.
+     */
+    private static final int[][] VARIANTS = {{3, 3}, {4, 3}, {5, 4}, {7, 5}, {8, 3}, {10, 5}, {15, 5}, {19, 6}};
+
+    private TicTacToeEngineCheck() {
+    }
+
+    public static void main(String[] args) {
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long moveCount = 0;
+        for (int[] variant : VARIANTS) {
+            int size = variant[0];
+            int[] cells = new int[size * size];
+            for (int game = 0; game < gameCount; game++) {
+                TicTacToePage.State state = new TicTacToePage.State(size, variant[1], false);
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = i;
+                }
+                // Cells in random order, drawn as a Fisher-Yates shuffle goes.
+                for (int free = cells.length; free > 0 && state.phase == TicTacToePage.Phase.RUNNING; free--) {
+                    int pick = random.nextInt(free);
+                    int cell = cells[pick];
+                    cells[pick] = cells[free - 1];
+                    state.play(cell);
+                    moveCount += 1;
+
+                    TicTacToePage.Phase reference = state.checkGameStateReference();
+                    if (state.phase != reference) {
+                        System.err.println("Phases differ [size=" + size + ", inRowCount=" + variant[1]
+                                + ", lastMove=" + cell + ", incremental=" + state.phase
+                                + ", reference=" + reference + "]");
+                        System.err.print(toText(state));
+                        System.exit(1);
+                    }
+                }
+            }
+        }
+        System.out.println("OK [variants=" + VARIANTS.length + ", games=" + gameCount * VARIANTS.length
+                + ", moves=" + moveCount + "]");
+    }
+
+    private static String toText(TicTacToePage.State state) {
+        int size = state.getSize();
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int stone = state.getStone(row * size + column);
+                text.append(stone > 0 ? 'X' : stone < 0 ? 'O' : '.');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.ServletMocks;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Check of {@link TicTacToeMoveLog}: a game forked by a resubmitted older token replays
+ * as the line of its latest move, not as a mix of both branches; a restart appends to
+ * the last segment; only the newest {@code ticTacToe.moveLogMaxSegments} segments are
+ * kept. Exits with 1 on the first failure.
+ */
+public final class TicTacToeMoveLogCheck {
+    private static final int MAX_SEGMENT_COUNT = 2;
+
+    private TicTacToeMoveLogCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path moveLogDir = Files.createTempDirectory("ticTacToe-moves");
+        ServletContext servletContext = ServletMocks.newServletContext(new File("."), Map.of(
+                "ticTacToe.moveLogDir", moveLogDir.toString(),
+                "ticTacToe.moveLogMaxSegments", String.valueOf(MAX_SEGMENT_COUNT)));
+        try {
+            TicTacToeMoveLog moveLog = open(servletContext);
+            TicTacToePage.State state = new TicTacToePage.State(3, 3, false);
+            moveLog.logStart(state);
+            play(moveLog, state, 0);
+            TicTacToePage.State fork = state.copy();
+            play(moveLog, state, 4);
+            play(moveLog, state, 8);
+            play(moveLog, fork, 1);
+            close(servletContext);
+            check(segmentCount(moveLogDir) == 1, "A new segment is opened on restart");
+
+            moveLog = open(servletContext);
+            play(moveLog, fork, 2);
+            check(sameBoard(moveLog.replay(state.getGameId()), fork), "Replay mixes the branches of a game");
+            check(segmentCount(moveLogDir) == 1, "A new segment is opened on restart");
+
+            // A start is one record, enough of them fill all segments kept and then some.
+            for (int i = 0; i < (MAX_SEGMENT_COUNT + 1) * (1 << 20) / 16; i++) {
+                moveLog.logStart(new TicTacToePage.State(3, 3, false));
+            }
+            check(segmentCount(moveLogDir) == MAX_SEGMENT_COUNT, "Segments beyond the maximum are kept");
+            check(moveLog.replay(state.getGameId()) == null, "A game of a deleted segment replays");
+        } finally {
+            close(servletContext);
+            delete(moveLogDir);
+        }
+        System.out.println("OK");
+    }
+
+    private static TicTacToeMoveLog open(ServletContext servletContext) {
+        new TicTacToeMoveLog.Listener().contextInitialized(new ServletContextEvent(servletContext));
+        return TicTacToeMoveLog.getInstance(servletContext);
+    }
+
+    private static void close(ServletContext servletContext) {
+        new TicTacToeMoveLog.Listener().contextDestroyed(new ServletContextEvent(servletContext));
+    }
+
+    private static void play(TicTacToeMoveLog moveLog, TicTacToePage.State state, int cell) {
+        int fromVersion = state.getVersion();
+        state.play(cell);
+        moveLog.logMoves(state, fromVersion, cell);
+    }
+
+    private static boolean sameBoard(TicTacToePage.State replayed, TicTacToePage.State state) {
+        if (replayed == null || replayed.getVersion() != state.getVersion()) {
+            return false;
+        }
+        for (int cell = 0; cell < state.getSize() * state.getSize(); cell++) {
+            if (replayed.getStone(cell) != state.getStone(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println(message);
+            System.exit(1);
+        }
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.itmo.wp.web.page;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress check of the compare-and-set moves of {@link TicTacToePage}: in every round
+ * several threads submit a different cell for the same version of one game at once,
+ * as double submits and concurrent tabs do, and exactly one of them must be played.
+ *
+ * <p>Arguments: rounds (10000) and threads (8). Exits with 1 on the first violation.
+ */
+public final class TicTacToeMoveStress {
+    private TicTacToeMoveStress() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int size = 9;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                TicTacToePage.State start = new TicTacToePage.State(size, 5, false);
+                start.play(round % (size * size));
+                AtomicReference<TicTacToePage.State> reference = new AtomicReference<>(start);
+                int version = start.getVersion();
+
+                List<Future<?>> futures = new ArrayList<>();
+                for (int thread = 0; thread < threadCount; thread++) {
+                    int cell = (round + 1 + thread) % (size * size);
+                    futures.add(executor.submit(() -> {
+                        barrier.await();
+                        TicTacToePage.applyMove(reference, version, cell / size, cell % size, null, null);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                TicTacToePage.State end = reference.get();
+                if (end.getVersion() != version + 1 || start.getVersion() != version) {
+                    System.err.println("Lost or doubled move [round=" + round + ", version=" + end.getVersion()
+                            + "]");
+                    System.exit(1);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("OK [rounds=" + rounds + ", threads=" + threadCount + "]");
+    }
+}
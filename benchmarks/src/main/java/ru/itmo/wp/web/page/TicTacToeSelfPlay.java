@@ -0,0 +1,406 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.Phase;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Offline self-play and exhaustive enumeration of tic-tac-toe by the rules of
+ * {@link State}, spread over the cores with fork-join.
+ *
+ * <p>Usage:
+ * <pre>
+ * TicTacToeSelfPlay enumerate &lt;size&gt; &lt;inRowCount&gt; [threads]
+ * TicTacToeSelfPlay tournament &lt;size&gt; &lt;inRowCount&gt; &lt;games&gt; &lt;crossesBot&gt; &lt;noughtsBot&gt; [threads]
+ * </pre>
+ * {@code enumerate} walks the whole game tree and counts the positions reachable
+ * from the empty board, the terminal ones by outcome, and the games (move sequences)
+ * by outcome. The classic board must give the known 5478 positions and 255168
+ * games, otherwise it exits with 1.
+ *
+ * <p>{@code tournament} plays the bots against each other: {@code random} plays a
+ * random free cell, {@code greedy} wins at once if it can and plays at random
+ * otherwise, and {@code ai} is the computer opponent of the page, a table lookup on
+ * the classic board and a 300 ms search on others. Games are split into tasks of
+ * {@value #GAMES_PER_TASK}, each with its own random seeded by its first game, so
+ * the outcome doesn't depend on the number of threads.
+ *
+ * <p>Every task keeps one {@link State} and plays on it with
+ * {@link State#play(int)} and {@link State#undo(int, int)}, so the hot loops allocate
+ * nothing and threads share nothing but the enumeration's position table.
+ */
+public final class TicTacToeSelfPlay {
+    private static final int CLASSIC_POSITIONS = 5478;
+    private static final long CLASSIC_GAMES = 255_168;
+    private static final int GAMES_PER_TASK = 1024;
+    /**
+     * Enumeration forks a task per move down to this ply and walks the rest sequentially.
+     */
+    private static final int FORK_PLIES = 2;
+
+    private TicTacToeSelfPlay() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length >= 3 && args[0].equals("enumerate")) {
+            int threadCount = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            enumerate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), threadCount);
+        } else if (args.length >= 6 && args[0].equals("tournament")) {
+            int threadCount = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+            playTournament(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]),
+                    getBot(args[4]), getBot(args[5]), threadCount);
+        } else {
+            System.err.println("Usage: TicTacToeSelfPlay enumerate <size> <inRowCount> [threads]");
+            System.err.println("       TicTacToeSelfPlay tournament <size> <inRowCount> <games>"
+                    + " <crossesBot> <noughtsBot> [threads]");
+            System.err.println("Bots: random, greedy, ai");
+            System.exit(1);
+        }
+    }
+
+    private static void enumerate(int size, int inRowCount, int threadCount) {
+        if (size * size > Enumeration.MAX_CELLS) {
+            System.err.println("Enumeration is limited to " + Enumeration.MAX_CELLS + " cells");
+            System.exit(1);
+        }
+        Enumeration enumeration = new Enumeration(size * size);
+        long startTime = System.nanoTime();
+        long[] games = new ForkJoinPool(threadCount).invoke(
+                new EnumerationTask(enumeration, new State(size, inRowCount, false), 0));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        long positions = enumeration.positions.sum();
+        long totalGames = games[0] + games[1] + games[2];
+        System.out.printf("%dx%d, %d in a row, %d threads: %d ms%n", size, size, inRowCount, threadCount, millis);
+        System.out.printf("Positions: %d, terminal: %d X won, %d O won, %d draws%n", positions,
+                enumeration.terminals[0].sum(), enumeration.terminals[2].sum(), enumeration.terminals[1].sum());
+        System.out.printf("Games: %d, %d X won, %d O won, %d draws%n", totalGames, games[0], games[2], games[1]);
+        if (size == State.DEFAULT_SIZE && inRowCount == State.DEFAULT_SIZE
+                && (positions != CLASSIC_POSITIONS || totalGames != CLASSIC_GAMES)) {
+            System.err.println("Expected " + CLASSIC_POSITIONS + " positions and " + CLASSIC_GAMES + " games");
+            System.exit(1);
+        }
+    }
+
+    private static void playTournament(int size, int inRowCount, long gameCount, Bot crossesBot, Bot noughtsBot,
+                                       int threadCount) {
+        long startTime = System.nanoTime();
+        long[] results = new ForkJoinPool(threadCount).invoke(
+                new TournamentTask(size, inRowCount, crossesBot, noughtsBot, 0, gameCount));
+        long nanos = Math.max(1, System.nanoTime() - startTime);
+
+        System.out.printf("%dx%d, %d in a row, %d threads: %d games in %d ms, %.0f games/s%n", size, size,
+                inRowCount, threadCount, gameCount, TimeUnit.NANOSECONDS.toMillis(nanos), gameCount * 1e9 / nanos);
+        System.out.printf("X won %.2f%%, O won %.2f%%, draws %.2f%%, %.2f moves a game%n",
+                100.0 * results[0] / gameCount, 100.0 * results[2] / gameCount, 100.0 * results[1] / gameCount,
+                (double) results[3] / gameCount);
+    }
+
+    /**
+     * @return index of the outcome of a finished game: 0 crosses won, 1 draw, 2 noughts won.
+     */
+    private static int getOutcome(State state) {
+        return state.phase == Phase.WON_X ? 0 : (state.phase == Phase.DRAW ? 1 : 2);
+    }
+
+    /**
+     * Positions seen by an enumeration, by their base-3 code, with the number of games
+     * from each by outcome. The table is split into stripes, each a primitive hash
+     * table under its own lock.
+     */
+    private static final class Enumeration {
+        /**
+         * Base-3 codes of larger boards don't fit in a long.
+         */
+        private static final int MAX_CELLS = 39;
+        private static final int STRIPE_COUNT = 256;
+
+        private final long[] powers;
+        private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+        private final LongAdder positions = new LongAdder();
+        private final LongAdder[] terminals = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+        private Enumeration(int cellCount) {
+            powers = new long[cellCount];
+            for (int i = 0; i < cellCount; i++) {
+                powers[i] = i == 0 ? 1 : powers[i - 1] * 3;
+            }
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        private Stripe getStripe(long code) {
+            long hash = code * 0x9E3779B97F4A7C15L;
+            return stripes[(int) (hash >>> 56) & (STRIPE_COUNT - 1)];
+        }
+
+        /**
+         * @return code of the position after the side to move plays the cell.
+         */
+        private long getChildCode(State state, long code, int cell) {
+            return code + powers[cell] * (state.getCrossesMove() ? 1 : 2);
+        }
+
+        /**
+         * @return games from the position by outcome, {@code null} if it hasn't been counted yet.
+         */
+        private long[] get(long code) {
+            Stripe stripe = getStripe(code);
+            synchronized (stripe) {
+                return stripe.get(code);
+            }
+        }
+
+        /**
+         * Remembers the games from a position. Two tasks may count the same position
+         * at once; both get the same numbers and only the first is kept.
+         */
+        private void put(long code, long[] games, State state) {
+            Stripe stripe = getStripe(code);
+            boolean added;
+            synchronized (stripe) {
+                added = stripe.putIfAbsent(code, games);
+            }
+            if (added) {
+                positions.increment();
+                if (state.phase != Phase.RUNNING) {
+                    terminals[getOutcome(state)].increment();
+                }
+            }
+        }
+
+        /**
+         * Walks the subtree of the position by playing and taking back moves on the state.
+         *
+         * @return games from the position by outcome.
+         */
+        private long[] walk(State state, long code) {
+            long[] games = get(code);
+            if (games != null) {
+                return games;
+            }
+            games = new long[3];
+            if (state.phase != Phase.RUNNING) {
+                games[getOutcome(state)] = 1;
+            } else {
+                int cellCount = state.getSize() * state.getSize();
+                for (int cell = 0; cell < cellCount; cell++) {
+                    if (state.isFree(cell)) {
+                        long childCode = getChildCode(state, code, cell);
+                        int lastMove = state.getLastMove();
+                        state.play(cell);
+                        long[] childGames = walk(state, childCode);
+                        state.undo(cell, lastMove);
+                        for (int i = 0; i < games.length; i++) {
+                            games[i] += childGames[i];
+                        }
+                    }
+                }
+            }
+            put(code, games, state);
+            return games;
+        }
+    }
+
+    /**
+     * Open addressing from codes to games, a code is stored plus one so that 0 marks a free slot.
+     */
+    private static final class Stripe {
+        private long[] keys = new long[16];
+        private long[][] values = new long[16][];
+        private int size;
+
+        private int find(long code) {
+            int mask = keys.length - 1;
+            int index = (int) (code * 0xC2B2AE3D27D4EB4FL >>> 32) & mask;
+            while (keys[index] != 0 && keys[index] != code + 1) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private long[] get(long code) {
+            return values[find(code)];
+        }
+
+        private boolean putIfAbsent(long code, long[] games) {
+            int index = find(code);
+            if (keys[index] != 0) {
+                return false;
+            }
+            keys[index] = code + 1;
+            values[index] = games;
+            if (++size * 2 > keys.length) {
+                long[] oldKeys = keys;
+                long[][] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new long[oldKeys.length * 2][];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0) {
+                        int newIndex = find(oldKeys[i] - 1);
+                        keys[newIndex] = oldKeys[i];
+                        values[newIndex] = oldValues[i];
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts the games from a position: forks a task per move in the first plies and
+     * walks the rest of the tree on its own copy of the state.
+     */
+    private static final class EnumerationTask extends RecursiveTask<long[]> {
+        private final Enumeration enumeration;
+        private final State state;
+        private final long code;
+
+        private EnumerationTask(Enumeration enumeration, State state, long code) {
+            this.enumeration = enumeration;
+            this.state = state;
+            this.code = code;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (state.getVersion() >= FORK_PLIES || state.phase != Phase.RUNNING) {
+                return enumeration.walk(state, code);
+            }
+            long[] games = enumeration.get(code);
+            if (games != null) {
+                return games;
+            }
+
+            List<EnumerationTask> tasks = new ArrayList<>();
+            int cellCount = state.getSize() * state.getSize();
+            for (int cell = 0; cell < cellCount; cell++) {
+                if (state.isFree(cell)) {
+                    State child = state.copy();
+                    child.play(cell);
+                    tasks.add(new EnumerationTask(enumeration, child, enumeration.getChildCode(state, code, cell)));
+                }
+            }
+            games = new long[3];
+            for (EnumerationTask task : invokeAll(tasks)) {
+                long[] childGames = task.join();
+                for (int i = 0; i < games.length; i++) {
+                    games[i] += childGames[i];
+                }
+            }
+            enumeration.put(code, games, state);
+            return games;
+        }
+    }
+
+    /**
+     * Plays a range of games, halving it until it is small enough to play in a row.
+     */
+    private static final class TournamentTask extends RecursiveTask<long[]> {
+        private final int size;
+        private final int inRowCount;
+        private final Bot crossesBot;
+        private final Bot noughtsBot;
+        private final long from;
+        private final long to;
+
+        private TournamentTask(int size, int inRowCount, Bot crossesBot, Bot noughtsBot, long from, long to) {
+            this.size = size;
+            this.inRowCount = inRowCount;
+            this.crossesBot = crossesBot;
+            this.noughtsBot = noughtsBot;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return games won by the crosses, drawn, won by the noughts, and moves played.
+         */
+        @Override
+        protected long[] compute() {
+            if (to - from > GAMES_PER_TASK) {
+                long middle = (from + to) >>> 1;
+                TournamentTask left = new TournamentTask(size, inRowCount, crossesBot, noughtsBot, from, middle);
+                left.fork();
+                long[] results = new TournamentTask(size, inRowCount, crossesBot, noughtsBot, middle, to).compute();
+                long[] leftResults = left.join();
+                for (int i = 0; i < results.length; i++) {
+                    results[i] += leftResults[i];
+                }
+                return results;
+            }
+
+            long[] results = new long[4];
+            SplittableRandom random = new SplittableRandom(from);
+            State state = new State(size, inRowCount, false);
+            int[] moves = new int[size * size];
+            for (long game = from; game < to; game++) {
+                int moveCount = 0;
+                while (state.phase == Phase.RUNNING) {
+                    int move = (state.getCrossesMove() ? crossesBot : noughtsBot).chooseMove(state, random);
+                    state.play(move);
+                    moves[moveCount++] = move;
+                }
+                results[getOutcome(state)] += 1;
+                results[3] += moveCount;
+                // Takes the game back instead of making a new state for the next one.
+                while (moveCount > 0) {
+                    moveCount -= 1;
+                    state.undo(moves[moveCount], moveCount > 0 ? moves[moveCount - 1] : -1);
+                }
+            }
+            return results;
+        }
+    }
+
+    private interface Bot {
+        /**
+         * @return free cell to play for the side to move, the state is left unchanged.
+         */
+        int chooseMove(State state, SplittableRandom random);
+    }
+
+    private static Bot getBot(String name) {
+        switch (name) {
+            case "random":
+                return TicTacToeSelfPlay::chooseRandomMove;
+            case "greedy":
+                return (state, random) -> {
+                    int cellCount = state.getSize() * state.getSize();
+                    for (int cell = 0; cell < cellCount; cell++) {
+                        if (state.isFree(cell)) {
+                            int lastMove = state.getLastMove();
+                            state.play(cell);
+                            boolean won = state.phase == Phase.WON_X || state.phase == Phase.WON_O;
+                            state.undo(cell, lastMove);
+                            if (won) {
+                                return cell;
+                            }
+                        }
+                    }
+                    return chooseRandomMove(state, random);
+                };
+            case "ai":
+                return (state, random) -> TicTacToeAi.chooseMove(state);
+            default:
+                throw new IllegalArgumentException("Unknown bot [name=" + name + "]");
+        }
+    }
+
+    private static int chooseRandomMove(State state, SplittableRandom random) {
+        int skip = random.nextInt(state.getFreeCells());
+        for (int cell = 0; ; cell++) {
+            if (state.isFree(cell) && skip-- == 0) {
+                return cell;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.FrontServlet;
+import ru.itmo.wp.web.ServletMocks;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Check that fresh visitors of the stateless {@link TicTacToePage} get games of their
+ * own: a page holds the signed token of its visitor's game, so it must never be
+ * reused from the render cache for another visitor in the same position.
+ *
+ * <p>Runs {@link FrontServlet} in production mode with stateless games and the move
+ * log in a temporary directory, as deployed. Arguments: visitors (2). Exits with 1
+ * if a visitor gets no game id or the game id of another.
+ */
+public final class TicTacToeStatelessCheck {
+    private static final Pattern STATE_TOKEN = Pattern.compile("name=\"state\" value=\"([^\"]+)\"");
+
+    private TicTacToeStatelessCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int visitorCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+
+        Path moveLogDir = Files.createTempDirectory("ticTacToe-moves");
+        ServletContext servletContext = ServletMocks.newServletContext(
+                new File(System.getProperty("webapp.dir", "../src/main/webapp")),
+                Map.of("ticTacToe.stateless", "true", "ticTacToe.moveLogDir", moveLogDir.toString()));
+        TicTacToeMoveLog.Listener moveLogListener = new TicTacToeMoveLog.Listener();
+        moveLogListener.contextInitialized(new ServletContextEvent(servletContext));
+        FrontServlet frontServlet = new FrontServlet();
+        frontServlet.init(ServletMocks.newServletConfig(servletContext, Map.of("production", "true")));
+        try {
+            TicTacToeStateToken tokens = TicTacToeStateToken.getInstance(servletContext);
+            Set<Long> gameIds = new HashSet<>();
+            for (int visitor = 0; visitor < visitorCount; visitor++) {
+                ByteArrayOutputStream page = new ByteArrayOutputStream();
+                frontServlet.service(ServletMocks.newRequest(servletContext, "GET", "/ticTacToe",
+                        Collections.emptyMap(), Collections.emptyMap()), ServletMocks.newResponse(page));
+                Matcher matcher = STATE_TOKEN.matcher(page.toString(StandardCharsets.UTF_8));
+                TicTacToePage.State state = matcher.find() ? tokens.decode(matcher.group(1)) : null;
+                if (state == null || state.getGameId() == 0 || !gameIds.add(state.getGameId())) {
+                    System.err.println("Visitor got no game of its own [visitor=" + visitor + ", gameId="
+                            + (state == null ? null : state.getGameId()) + "]");
+                    System.exit(1);
+                }
+            }
+        } finally {
+            frontServlet.destroy();
+            moveLogListener.contextDestroyed(new ServletContextEvent(servletContext));
+            delete(moveLogDir);
+        }
+        System.out.println("OK [visitors=" + visitorCount + "]");
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
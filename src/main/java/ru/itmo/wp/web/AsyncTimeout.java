@@ -0,0 +1,23 @@
+package ru.itmo.wp.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Timeout of the async processing an action starts, such as an event stream.
+ *
+ * <p>The timeout of an {@link javax.servlet.AsyncContext} may only be set while the
+ * request is being dispatched, and in the async execution mode the action runs after
+ * that, so {@link FrontServlet} sets the declared timeout itself: before handing the
+ * request over to the executor, or right after the action in the blocking mode.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AsyncTimeout {
+    /**
+     * @return timeout in milliseconds, 0 for none.
+     */
+    long value();
+}
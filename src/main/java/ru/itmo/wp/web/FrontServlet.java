@@ -6,24 +6,61 @@ import ru.itmo.wp.web.exception.RedirectException;
 import ru.itmo.wp.web.page.IndexPage;
 import ru.itmo.wp.web.page.NotFoundPage;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.io.File;
-import java.io.IOException;
-import java.lang.reflect.*;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class FrontServlet extends HttpServlet {
+    /**
+     * View attribute of a page whose rendering is fully determined by it and the template.
+     */
+    static final String RENDER_CACHE_KEY = "renderCacheKey";
     private static final String BASE_PACKAGE = FrontServlet.class.getPackage().getName() + ".page";
     private static final String DEFAULT_ACTION = "action";
+    private static final String DEFAULT_LANGUAGE = "en";
+    private static final String TEMPLATE_SUFFIX = ".ftlh";
+    private static final Map<String, Locale> LOCALES = new ConcurrentHashMap<>();
+    private static final String BLOCKING_EXECUTION = "blocking";
+    private static final String ASYNC_EXECUTION = "async";
+    private static final long ASYNC_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_QUEUED_REQUESTS = 1024;
 
     private Configuration sourceConfiguration;
     private Configuration targetConfiguration;
+    private PageRegistry pageRegistry;
+    private PageRouter pageRouter;
+    private PageRegistry.Page notFoundPage;
+    private Map<Class<?>, Map<String, Template>> productionTemplates;
+    private final RenderCache renderCache = new RenderCache(16, 16L << 20);
+    /**
+     * Encoded static text of the templates, only when the templates never change.
+     */
+    private Map<char[], byte[]> preEncodedText;
+    /**
+     * Runs requests in the async execution mode, {@code null} in the blocking one.
+     */
+    private ExecutorService executor;
+    private final Metrics metrics = Metrics.getInstance();
+    private final Map<PageRegistry.Action, Metrics.PageMetrics> pageMetrics = new ConcurrentHashMap<>();
 
     private Configuration newFreemarkerConfiguration(String templateDirName, boolean debug)
             throws ServletException {
@@ -45,15 +82,125 @@ public class FrontServlet extends HttpServlet {
         configuration.setLogTemplateExceptions(false);
         configuration.setWrapUncheckedExceptions(true);
 
+        // Published by StaticFilter, whose init runs before that of servlets.
+        Object assetVersions = getServletContext().getAttribute(StaticFilter.ASSET_VERSIONS_ATTRIBUTE);
+        if (assetVersions != null) {
+            try {
+                configuration.setSharedVariable("assetVersions", assetVersions);
+            } catch (TemplateModelException e) {
+                throw new ServletException("Can't share asset versions with templates", e);
+            }
+        }
+
         return configuration;
     }
 
     @Override
     public void init() throws ServletException {
-        sourceConfiguration = newFreemarkerConfiguration(
-                getServletContext().getRealPath("/") + "../../src/main/webapp/WEB-INF/templates", true);
-        targetConfiguration = newFreemarkerConfiguration(
-                getServletContext().getRealPath("WEB-INF/templates"), false);
+        boolean production = Boolean.parseBoolean(getInitParameter("production"));
+        if (!production) {
+            sourceConfiguration = newFreemarkerConfiguration(
+                    getServletContext().getRealPath("/") + "../../src/main/webapp/WEB-INF/templates", true);
+        }
+        String targetTemplateDirName = getServletContext().getRealPath("WEB-INF/templates");
+        targetConfiguration = newFreemarkerConfiguration(targetTemplateDirName, false);
+        pageRegistry = PageRegistry.newPageRegistry(BASE_PACKAGE);
+        pageRouter = PageRouter.newPageRouter(pageRegistry, BASE_PACKAGE,
+                pageRegistry.getPage(IndexPage.class.getName()));
+        notFoundPage = pageRegistry.getPage(NotFoundPage.class.getName());
+
+        if (production) {
+            if (targetConfiguration == null) {
+                throw new ServletException("Can't find templates [templateDir=" + targetTemplateDirName + "]");
+            }
+            targetConfiguration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+            productionTemplates = loadTemplates(new File(targetTemplateDirName));
+            preEncodedText = Utf8ResponseWriter.newPreEncodedMap();
+        }
+
+        String execution = getInitParameter("execution");
+        if (ASYNC_EXECUTION.equals(execution)) {
+            executor = newExecutor();
+        } else if (execution != null && !BLOCKING_EXECUTION.equals(execution)) {
+            throw new ServletException("Unknown execution mode [execution=" + execution + "]");
+        }
+    }
+
+    /**
+     * @return virtual thread per task executor if the runtime has virtual threads,
+     * a bounded pool otherwise.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threadCount = 8 * Runtime.getRuntime().availableProcessors();
+            return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Loads the template of every page for every language some template is localized
+     * to, so rendering in production never touches the filesystem.
+     *
+     * @return page class to language to template, the default language included.
+     */
+    private Map<Class<?>, Map<String, Template>> loadTemplates(File templateDir) throws ServletException {
+        Set<String> languages = new HashSet<>();
+        languages.add(DEFAULT_LANGUAGE);
+        String[] templateFileNames = templateDir.list();
+        if (templateFileNames != null) {
+            for (String templateFileName : templateFileNames) {
+                int languageIndex = templateFileName.length() - TEMPLATE_SUFFIX.length() - 2;
+                if (templateFileName.endsWith(TEMPLATE_SUFFIX) && languageIndex > 0
+                        && templateFileName.charAt(languageIndex - 1) == '_') {
+                    String language = templateFileName.substring(languageIndex, languageIndex + 2);
+                    if (isLanguage(language)) {
+                        languages.add(language);
+                    }
+                }
+            }
+        }
+
+        Map<Class<?>, Map<String, Template>> templates = new HashMap<>();
+        for (PageRegistry.Page page : pageRegistry.getPages()) {
+            String templateName = page.getPageClass().getSimpleName() + TEMPLATE_SUFFIX;
+            Map<String, Template> pageTemplates = new HashMap<>();
+            for (String language : languages) {
+                try {
+                    pageTemplates.put(language, targetConfiguration.getTemplate(templateName, getLocale(language)));
+                } catch (TemplateNotFoundException ignored) {
+                    // No operations.
+                } catch (IOException e) {
+                    throw new ServletException("Can't load template [templateName=" + templateName + "]", e);
+                }
+            }
+            if (!pageTemplates.isEmpty()) {
+                templates.put(page.getPageClass(), Collections.unmodifiableMap(pageTemplates));
+            }
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
+    private static boolean isLanguage(String language) {
+        return language != null && language.length() >= 2
+                && language.charAt(0) >= 'a' && language.charAt(0) <= 'z'
+                && language.charAt(1) >= 'a' && language.charAt(1) <= 'z';
+    }
+
+    /**
+     * @return shared locale of the two-letter language.
+     */
+    private static Locale getLocale(String language) {
+        return LOCALES.computeIfAbsent(language.substring(0, 2), Locale::new);
     }
 
     @Override
@@ -70,151 +217,257 @@ public class FrontServlet extends HttpServlet {
 
     private void process(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        Route route = Route.newRoute(request);
+        if (executor != null && request.isAsyncSupported()) {
+            processAsync(request, response);
+            return;
+        }
+
+        byte[] content = process(request, response, false);
+        if (content != null) {
+            response.getOutputStream().write(content);
+        }
+    }
+
+    /**
+     * Runs the action and renders the page on the executor, then writes the page
+     * whenever the client is ready to take it, so no container thread waits for
+     * either.
+     */
+    private void processAsync(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        AsyncContext asyncContext = request.startAsync();
+        // The timeout can't be changed once this dispatch returns, so the action's own is looked up now.
+        PageRegistry.Page page = pageRouter.route(request.getRequestURI());
+        PageRegistry.Action action = page != null ? page.getAction(getActionName(request)) : null;
+        asyncContext.setTimeout(action != null && action.getAsyncTimeoutMillis() >= 0
+                ? action.getAsyncTimeoutMillis() : ASYNC_TIMEOUT_MILLIS);
+        AsyncRequest asyncRequest = new AsyncRequest(request, getServletContext(), asyncContext);
+        AsyncProcessing processing = new AsyncProcessing(asyncRequest);
+        asyncContext.addListener(processing);
+        try {
+            executor.execute(() -> {
+                if (processing.isDone()) {
+                    // Timed out while queued, the request may already be recycled.
+                    return;
+                }
+                try {
+                    byte[] content = process(asyncRequest, response, true);
+                    if (asyncRequest.isDetached() || processing.isDone()) {
+                        return;
+                    }
+                    if (content == null) {
+                        processing.complete();
+                    } else {
+                        response.getOutputStream().setWriteListener(new ContentWriteListener(processing, content));
+                    }
+                } catch (ServletException | IOException | RuntimeException e) {
+                    fail(processing, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            processing.complete();
+        }
+    }
+
+    private void fail(AsyncProcessing processing, Throwable e) {
+        if (processing.isDone()) {
+            // Timed out or failed by the container, which may have recycled the request it fails on.
+            return;
+        }
+        AsyncContext asyncContext = processing.asyncRequest.getAsyncContext();
+        getServletContext().log("Can't process request [uri=" + processing.asyncRequest.getRequestURI() + "]", e);
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        } catch (IOException | IllegalStateException ignored) {
+            // No operations.
+        }
+        processing.complete();
+    }
+
+    /**
+     * @param buffered whether a rendered page must be returned instead of written to the response.
+     * @return rendered page to write or {@code null} if the response is already written.
+     */
+    private byte[] process(HttpServletRequest request, HttpServletResponse response, boolean buffered)
+            throws ServletException, IOException {
+        long startNanos = System.nanoTime();
         try {
-            process(route, request, response);
+            return process(pageRouter.route(request.getRequestURI()), getActionName(request), request, response,
+                    buffered, startNanos);
         } catch (NotFoundException e) {
+            metrics.notFoundFallbacks.increment();
             try {
-                process(Route.newNotFoundRoute(), request, response);
+                return process(notFoundPage, DEFAULT_ACTION, request, response, buffered, startNanos);
             } catch (NotFoundException notFoundException) {
                 throw new ServletException(notFoundException);
             }
         }
     }
 
-    private void process(Route route, HttpServletRequest request, HttpServletResponse response)
+    private static String getActionName(HttpServletRequest request) {
+        String action = request.getParameter("action");
+        return action == null || action.isEmpty() ? DEFAULT_ACTION : action;
+    }
+
+    /**
+     * @param startNanos when the request came, to record the time of the whole request.
+     */
+    private byte[] process(PageRegistry.Page page, String actionName, HttpServletRequest request,
+                           HttpServletResponse response, boolean buffered, long startNanos)
             throws NotFoundException, ServletException, IOException {
-        Class<?> pageClass;
-        try {
-            pageClass = Class.forName(route.getClassName());
-        } catch (ClassNotFoundException e) {
+        if (page == null) {
             throw new NotFoundException();
         }
 
-        Method method = null;
-        for (Class<?> clazz = pageClass; method == null && clazz != null; clazz = clazz.getSuperclass()) {
-            try {
-                String methodName = route.getAction();
-                boolean chosen = false;
-                for (Method m : clazz.getDeclaredMethods()) {
-                    if (m.getName().equals(methodName)
-                            && (m.getReturnType().equals(void.class))
-                            && (m.getParameterCount() <= 2)) {
-                        int viewCount = 0;
-                        int requestCount = 0;
-                        Type[] allTypes = m.getGenericParameterTypes();
-                        boolean hasOther = false;
-                        for (Type type : allTypes) {
-                            String s = type.getTypeName();
-                            if (type instanceof ParameterizedType) {
-                                s = ((ParameterizedType) type).getRawType().getTypeName();
-                            }
-                            if (s.equals(Map.class.getName())) {
-                                viewCount += 1;
-                            }
-                            else if (s.equals(HttpServletRequest.class.getName())) {
-                                requestCount += 1;
-                            }
-                            else {
-                                hasOther = true;
-                            }
-                        }
-                        if (viewCount > 1 || requestCount > 1 || hasOther) {
-                            continue;
-                        }
-
-                        if (chosen) {
-                            throw new ServletException("Multiple methods matched for " + methodName
-                                    + " in class " + clazz.getName());
-                        }
-                        method = m;
-                        chosen = true;
-                    }
-                }
-                if (method == null) {
-                    throw new NoSuchMethodException("No such method could be found");
-                }
-            } catch (NoSuchMethodException ignored) {
-                // No operations.
-            }
-        }
-
-        if (method == null) {
+        PageRegistry.Action action = page.getAction(actionName);
+        if (action == null) {
             throw new NotFoundException();
         }
 
-        Object page;
+        Metrics.PageMetrics pageMetrics = this.pageMetrics.get(action);
+        if (pageMetrics == null) {
+            pageMetrics = this.pageMetrics.computeIfAbsent(action, key ->
+                    metrics.getPageMetrics(page.getPageClass(), key.getMethod().getName()));
+        }
         try {
-            page = pageClass.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new ServletException("Can't create page [pageClass="
-                    + pageClass + "]");
+            return process(page, action, pageMetrics, request, response, buffered);
+        } finally {
+            pageMetrics.dispatch.record(System.nanoTime() - startNanos);
         }
+    }
 
+    private byte[] process(PageRegistry.Page page, PageRegistry.Action action, Metrics.PageMetrics pageMetrics,
+                           HttpServletRequest request, HttpServletResponse response, boolean buffered)
+            throws ServletException, IOException {
+        Class<?> pageClass = page.getPageClass();
+        Object pageInstance = page.newInstance();
         Map<String, Object> view = new HashMap<>();
-        method.setAccessible(true);
+        long actionStartNanos = System.nanoTime();
         try {
-            ArrayList<Object> args = new ArrayList<>();
-            Type[] allTypes = method.getGenericParameterTypes();
-            for (Type type : allTypes) {
-                String s = type.getTypeName();
-                if (type instanceof ParameterizedType) {
-                    s = ((ParameterizedType) type).getRawType().getTypeName();
-                }
-                if (s.equals(Map.class.getName())) {
-                    args.add(view);
-                }
-                if (s.equals(HttpServletRequest.class.getName())) {
-                    args.add(request);
-                }
+            action.invoke(pageInstance, view, request, response);
+            // In the async execution mode the timeout is already set, and this dispatch is over.
+            if (action.getAsyncTimeoutMillis() >= 0 && !(request instanceof AsyncRequest)
+                    && request.isAsyncStarted()) {
+                request.getAsyncContext().setTimeout(action.getAsyncTimeoutMillis());
             }
-            if (args.size() != method.getParameterCount()) {
-                throw new ServletException("Wrong number of arguments (" + args.size() + ") passed to action-method ["
-                        + method.getName() + "]");
-            } else {
-                method.invoke(page, args.toArray());
-            }
-        } catch (IllegalAccessException e) {
+        } catch (RedirectException redirectException) {
+            metrics.redirects.increment();
+            response.sendRedirect(redirectException.getTarget());
+            return null;
+        } catch (Throwable e) {
             throw new ServletException("Can't invoke action method [pageClass="
-                    + pageClass + ", method=" + method + "]");
-        } catch (InvocationTargetException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof RedirectException) {
-                RedirectException redirectException = (RedirectException) cause;
-                response.sendRedirect(redirectException.getTarget());
-                return;
-            } else {
-                throw new ServletException("Can't invoke action method [pageClass="
-                        + pageClass + ", method=" + method + "]", cause);
-            }
+                    + pageClass + ", method=" + action.getMethod() + "]", e);
+        } finally {
+            pageMetrics.action.record(System.nanoTime() - actionStartNanos);
+        }
+        if (action.isWritesResponse()) {
+            return null;
         }
 
+        long templateStartNanos = System.nanoTime();
+
         String requestLanguage = request.getParameter("lang");
-        Template template = null;
-        HttpSession session = request.getSession();
+        HttpSession session = request.getSession(false);
+        String language = (requestLanguage != null) ? requestLanguage
+                : (session != null ? (String) session.getAttribute("lang") : null);
+        if (isLanguage(language)) {
+            if (requestLanguage != null) {
+                request.getSession().setAttribute("lang", language);
+            }
+        } else {
+            language = null;
+        }
+        Template template = getTemplate(pageClass, language);
+        long renderStartNanos = System.nanoTime();
+        pageMetrics.template.record(renderStartNanos - templateStartNanos);
 
+        response.setContentType("text/html");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
         try {
-            String language = (requestLanguage != null) ? requestLanguage : (String) session.getAttribute("lang");
-            if (language != null && language.substring(0, 2).matches("[a-z]{2}")) {
-                session.setAttribute("lang", language);
-                template = newTemplate(pageClass.getSimpleName() + ".ftlh" , new Locale(language));
+            return render(template, view, pageClass, action, response, buffered);
+        } finally {
+            pageMetrics.render.record(System.nanoTime() - renderStartNanos);
+        }
+    }
+
+    /**
+     * @return rendered page to write or {@code null} if it is already written to the response.
+     */
+    private byte[] render(Template template, Map<String, Object> view, Class<?> pageClass,
+                          PageRegistry.Action action, HttpServletResponse response, boolean buffered)
+            throws ServletException, IOException {
+
+        Object renderCacheKey = view.get(RENDER_CACHE_KEY);
+        if (!(renderCacheKey instanceof String) && !buffered) {
+            try (Writer writer = new Utf8ResponseWriter(response.getOutputStream(), preEncodedText)) {
+                render(template, view, writer, pageClass, action);
             }
-            if (template == null) {
-                template = newTemplate(pageClass.getSimpleName() + ".ftlh");
+            return null;
+        }
+
+        byte[] content = renderCacheKey instanceof String ? renderCache.get(template, (String) renderCacheKey) : null;
+        if (content == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+            boolean complete;
+            try (Writer writer = new Utf8ResponseWriter(buffer, preEncodedText)) {
+                complete = render(template, view, writer, pageClass, action);
+            }
+            content = buffer.toByteArray();
+            if (complete && renderCacheKey instanceof String) {
+                renderCache.put(template, (String) renderCacheKey, content);
             }
-        } catch (ServletException e) {
-            template = newTemplate(pageClass.getSimpleName() + ".ftlh"); // ??
         }
-        response.setContentType("text/html");
-        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setContentLength(content.length);
+        return content;
+    }
+
+    /**
+     * @return {@code false} if rendering failed in development and the output is an error report.
+     */
+    private boolean render(Template template, Map<String, Object> view, Writer writer, Class<?> pageClass,
+                           PageRegistry.Action action) throws ServletException, IOException {
         try {
-            template.process(view, response.getWriter());
+            template.process(view, writer);
+            return true;
         } catch (TemplateException e) {
+            metrics.templateErrors.increment();
             if (sourceConfiguration == null) {
                 throw new ServletException("Can't render template [pageClass="
-                        + pageClass + ", action=" + method + "]", e);
+                        + pageClass + ", action=" + action.getMethod() + "]", e);
+            }
+            return false;
+        }
+    }
+
+    private Template getTemplate(Class<?> pageClass, String language) throws ServletException {
+        if (productionTemplates != null) {
+            Map<String, Template> pageTemplates = productionTemplates.get(pageClass);
+            Template template = null;
+            if (pageTemplates != null) {
+                template = pageTemplates.get(language != null ? language.substring(0, 2) : DEFAULT_LANGUAGE);
+                if (template == null) {
+                    template = pageTemplates.get(DEFAULT_LANGUAGE);
+                }
+            }
+            if (template == null) {
+                throw new ServletException("Can't find template [pageClass=" + pageClass + "]");
             }
+            return template;
         }
+
+        String templateName = pageClass.getSimpleName() + TEMPLATE_SUFFIX;
+        if (language != null) {
+            try {
+                return newTemplate(templateName, getLocale(language));
+            } catch (ServletException ignored) {
+                // Falls back to the default language.
+            }
+        }
+        return newTemplate(templateName);
     }
 
     private Template newTemplate(String templateName, Locale locale) throws ServletException {
@@ -248,59 +501,143 @@ public class FrontServlet extends HttpServlet {
     }
 
     private Template newTemplate(String templateName) throws ServletException {
-        return newTemplate(templateName, new Locale("en"));
+        return newTemplate(templateName, getLocale(DEFAULT_LANGUAGE));
     }
 
-    private static class Route {
-        private final String className;
-        private final String action;
+    /**
+     * Async processing of a request on the executor, which may still be running when
+     * the container times the request out or fails it: from then on the response may
+     * be recycled, so nothing is written to it and it is not completed again.
+     */
+    private static final class AsyncProcessing implements AsyncListener {
+        private final AsyncRequest asyncRequest;
+        private volatile boolean done;
+
+        private AsyncProcessing(AsyncRequest asyncRequest) {
+            this.asyncRequest = asyncRequest;
+        }
 
-        private Route(String className, String action) {
-            this.className = className;
-            this.action = action;
+        private boolean isDone() {
+            return done;
         }
 
-        private String getClassName() {
-            return className;
+        private void complete() {
+            done = true;
+            try {
+                asyncRequest.getAsyncContext().complete();
+            } catch (IllegalStateException ignored) {
+                // Already completed by the container.
+            }
         }
 
-        private String getAction() {
-            return action;
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // A page that has taken over the response handles its own timeout.
+            if (done || asyncRequest.isDetached()) {
+                return;
+            }
+            done = true;
+            try {
+                HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+                if (!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            } catch (IOException | IllegalStateException ignored) {
+                // No operations.
+            }
+            complete();
         }
 
-        private static Route newNotFoundRoute() {
-            return new Route(NotFoundPage.class.getName(), DEFAULT_ACTION);
+        @Override
+        public void onError(AsyncEvent event) {
+            if (!asyncRequest.isDetached()) {
+                complete();
+            }
         }
 
-        private static Route newIndexRoute() {
-            return new Route(IndexPage.class.getName(), DEFAULT_ACTION);
+        @Override
+        public void onComplete(AsyncEvent event) {
+            done = true;
         }
 
-        private static Route newRoute(HttpServletRequest request) {
-            String uri = request.getRequestURI();
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // No operations.
+        }
+    }
+
+    /**
+     * Writes a rendered page in chunks, each when the output stream can take it without blocking.
+     */
+    private final class ContentWriteListener implements WriteListener {
+        private static final int CHUNK_SIZE = 32 * 1024;
+
+        private final AsyncProcessing processing;
+        private final byte[] content;
+        private int offset;
 
-            List<String> classNameParts = Arrays.stream(uri.split("/"))
-                    .filter(part -> !part.isEmpty())
-                    .collect(Collectors.toList());
+        private ContentWriteListener(AsyncProcessing processing, byte[] content) {
+            this.processing = processing;
+            this.content = content;
+        }
 
-            if (classNameParts.isEmpty()) {
-                return newIndexRoute();
+        @Override
+        public void onWritePossible() throws IOException {
+            ServletOutputStream out = processing.asyncRequest.getAsyncContext().getResponse().getOutputStream();
+            while (!processing.isDone() && out.isReady()) {
+                if (offset == content.length) {
+                    processing.complete();
+                    return;
+                }
+                int length = Math.min(CHUNK_SIZE, content.length - offset);
+                out.write(content, offset, length);
+                offset += length;
             }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(processing, t);
+        }
+    }
+
+    /**
+     * Request as pages see it in the async execution mode, where it is already in
+     * async mode: {@link #startAsync()} hands over the running async processing, so
+     * the page finishes the response instead of the servlet, as in the blocking mode.
+     */
+    private static final class AsyncRequest extends HttpServletRequestWrapper {
+        private final ServletContext servletContext;
+        private final AsyncContext asyncContext;
+        private volatile boolean detached;
+
+        private AsyncRequest(HttpServletRequest request, ServletContext servletContext, AsyncContext asyncContext) {
+            super(request);
+            this.servletContext = servletContext;
+            this.asyncContext = asyncContext;
+        }
 
-            StringBuilder simpleClassName = new StringBuilder(classNameParts.get(classNameParts.size() - 1));
-            int lastDotIndex = simpleClassName.lastIndexOf(".");
-            simpleClassName.setCharAt(lastDotIndex + 1,
-                    Character.toUpperCase(simpleClassName.charAt(lastDotIndex + 1)));
-            classNameParts.set(classNameParts.size() - 1, simpleClassName.toString());
+        private boolean isDetached() {
+            return detached;
+        }
 
-            String className = BASE_PACKAGE + "." + String.join(".", classNameParts) + "Page";
+        /**
+         * Containers may only know the context of the request on the thread that dispatched it.
+         */
+        @Override
+        public ServletContext getServletContext() {
+            return servletContext;
+        }
 
-            String action = request.getParameter("action");
-            if (action == null || action.isEmpty()) {
-                action = DEFAULT_ACTION;
-            }
+        @Override
+        public AsyncContext startAsync() {
+            detached = true;
+            return asyncContext;
+        }
 
-            return new Route(className, action);
+        @Override
+        public AsyncContext getAsyncContext() {
+            return asyncContext;
         }
     }
 }
\ No newline at end of file
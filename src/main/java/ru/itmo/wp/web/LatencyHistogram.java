@@ -0,0 +1,74 @@
+package ru.itmo.wp.web;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, in the manner of HDR histograms:
+ * every power of two is split into {@value #SUB_BUCKET_COUNT} linear buckets, so a
+ * value is known within 12.5% from a nanosecond to centuries in a fixed array, and
+ * recording is an index computation and one atomic increment.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    /**
+     * Exported bucket bounds are powers of two nanoseconds, from about a microsecond to half a minute.
+     */
+    private static final int MIN_EXPORTED_EXPONENT = 10;
+    private static final int MAX_EXPORTED_EXPONENT = 35;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sumNanos = new LongAdder();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(getIndex(value));
+        sumNanos.add(value);
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKET_COUNT} have a bucket each; a larger value with
+     * the highest bit {@code e} goes to the bucket of its next {@link #SUB_BUCKET_BITS}
+     * bits among those of {@code e}.
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Writes the histogram as Prometheus {@code _bucket}, {@code _sum} and
+     * {@code _count} samples in seconds. Concurrent recording may make the samples of
+     * one scrape differ by the values recorded meanwhile, never more.
+     *
+     * @param labels labels of the samples without braces, may be empty.
+     */
+    void writePrometheus(Writer writer, String name, String labels) throws IOException {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        int index = 0;
+        for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPORTED_EXPONENT; exponent++) {
+            // Buckets below the index hold exactly the values less than 2^exponent.
+            for (int end = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT; index < end; index++) {
+                cumulative += counts.get(index);
+            }
+            writer.write(name + "_bucket{" + labels + separator + "le=\"" + (double) (1L << exponent) / 1e9
+                    + "\"} " + cumulative + "\n");
+        }
+        for (; index < BUCKET_COUNT; index++) {
+            cumulative += counts.get(index);
+        }
+        writer.write(name + "_bucket{" + labels + separator + "le=\"+Inf\"} " + cumulative + "\n");
+        writer.write(name + "_sum" + (labels.isEmpty() ? "" : "{" + labels + "}") + " "
+                + sumNanos.sum() / 1e9 + "\n");
+        writer.write(name + "_count" + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + cumulative + "\n");
+    }
+}
@@ -0,0 +1,112 @@
+package ru.itmo.wp.web;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of the web application, recorded by {@link FrontServlet} and
+ * {@link StaticFilter} and written in the Prometheus text format, with the counters
+ * other parts of the application register.
+ *
+ * <p>Recording is meant to stay on in production: counters are {@link LongAdder}s,
+ * histograms are {@link LatencyHistogram}s, and the histograms of a page action are
+ * looked up once and kept by the servlet, so a request costs a few
+ * {@code System.nanoTime()} calls and atomic increments.
+ */
+public final class Metrics {
+    private static final Metrics INSTANCE = new Metrics();
+
+    final LongAdder redirects = new LongAdder();
+    final LongAdder notFoundFallbacks = new LongAdder();
+    final LongAdder templateErrors = new LongAdder();
+    final LongAdder staticHits = new LongAdder();
+    final LongAdder staticNotModified = new LongAdder();
+    final LongAdder staticMisses = new LongAdder();
+    final LatencyHistogram staticLatency = new LatencyHistogram();
+
+    /**
+     * Page action labels to its histograms, sorted to keep the output stable.
+     */
+    private final Map<String, PageMetrics> pageMetrics = new ConcurrentSkipListMap<>();
+    /**
+     * Registered counters by name, sorted to keep the output stable.
+     */
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Writes a counter kept by another part of the application along with the request
+     * metrics, in place of one registered before under the same name.
+     */
+    public void registerCounter(String name, String help, LongAdder counter) {
+        counters.put(name, new Counter(help, counter));
+    }
+
+    PageMetrics getPageMetrics(Class<?> pageClass, String action) {
+        return pageMetrics.computeIfAbsent("page=\"" + pageClass.getName() + "\",action=\"" + action + "\"",
+                labels -> new PageMetrics());
+    }
+
+    public void writePrometheus(Writer writer) throws IOException {
+        writer.write("# HELP wp_page_seconds Time of page requests by stage: dispatch is the whole request,"
+                + " action, template lookup and render are its parts.\n");
+        writer.write("# TYPE wp_page_seconds histogram\n");
+        for (Map.Entry<String, PageMetrics> entry : pageMetrics.entrySet()) {
+            PageMetrics metrics = entry.getValue();
+            String labels = entry.getKey();
+            metrics.dispatch.writePrometheus(writer, "wp_page_seconds", labels + ",stage=\"dispatch\"");
+            metrics.action.writePrometheus(writer, "wp_page_seconds", labels + ",stage=\"action\"");
+            metrics.template.writePrometheus(writer, "wp_page_seconds", labels + ",stage=\"template\"");
+            metrics.render.writePrometheus(writer, "wp_page_seconds", labels + ",stage=\"render\"");
+        }
+
+        writer.write("# HELP wp_static_seconds Time of static files served from memory.\n");
+        writer.write("# TYPE wp_static_seconds histogram\n");
+        staticLatency.writePrometheus(writer, "wp_static_seconds", "");
+
+        writeCounter(writer, "wp_redirects_total", "Actions that redirected.", redirects);
+        writeCounter(writer, "wp_not_found_fallbacks_total", "Requests answered by the not found page.",
+                notFoundFallbacks);
+        writeCounter(writer, "wp_template_errors_total", "Templates that failed to render.", templateErrors);
+        writeCounter(writer, "wp_static_hits_total", "Requests for static files in memory.", staticHits);
+        writeCounter(writer, "wp_static_not_modified_total", "Static file requests answered with 304.",
+                staticNotModified);
+        writeCounter(writer, "wp_static_misses_total", "Requests passed on by the static filter.", staticMisses);
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            writeCounter(writer, entry.getKey(), entry.getValue().help, entry.getValue().counter);
+        }
+    }
+
+    private static void writeCounter(Writer writer, String name, String help, LongAdder counter)
+            throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " counter\n");
+        writer.write(name + " " + counter.sum() + "\n");
+    }
+
+    private static final class Counter {
+        private final String help;
+        private final LongAdder counter;
+
+        private Counter(String help, LongAdder counter) {
+            this.help = help;
+            this.counter = counter;
+        }
+    }
+
+    static final class PageMetrics {
+        final LatencyHistogram dispatch = new LatencyHistogram();
+        final LatencyHistogram action = new LatencyHistogram();
+        final LatencyHistogram template = new LatencyHistogram();
+        final LatencyHistogram render = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,307 @@
+package ru.itmo.wp.web;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Dispatch table of all page classes and their action methods.
+ *
+ * <p>Built once at servlet start by scanning the page package, so a request only
+ * does hash lookups: page class name to {@link Page}, action name to {@link Action}.
+ * A name missing from the table is known to be unknown (the scan is exhaustive),
+ * which makes routes that fall through to the not-found page cost a single probe.
+ */
+class PageRegistry {
+    private static final String PAGE_SUFFIX = "Page";
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class,
+            Object.class, Map.class, HttpServletRequest.class, HttpServletResponse.class);
+
+    private final Map<String, Page> pages;
+
+    private PageRegistry(Map<String, Page> pages) {
+        this.pages = pages;
+    }
+
+    Page getPage(String className) {
+        return pages.get(className);
+    }
+
+    Collection<Page> getPages() {
+        return pages.values();
+    }
+
+    static PageRegistry newPageRegistry(String basePackage) throws ServletException {
+        List<String> classNames = new ArrayList<>();
+        try {
+            findClassNames(basePackage, classNames);
+        } catch (IOException | URISyntaxException e) {
+            throw new ServletException("Can't scan page package [basePackage=" + basePackage + "]", e);
+        }
+
+        Map<String, Page> pages = new HashMap<>();
+        for (String className : classNames) {
+            Class<?> pageClass;
+            try {
+                pageClass = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                throw new ServletException("Can't load page class [className=" + className + "]", e);
+            }
+            if (pageClass.isInterface() || Modifier.isAbstract(pageClass.getModifiers())) {
+                continue;
+            }
+            pages.put(className, newPage(pageClass));
+        }
+        return new PageRegistry(Collections.unmodifiableMap(pages));
+    }
+
+    private static void findClassNames(String basePackage, List<String> classNames)
+            throws IOException, URISyntaxException {
+        String packagePath = basePackage.replace('.', '/') + "/";
+        Enumeration<URL> urls = PageRegistry.class.getClassLoader().getResources(packagePath);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            if ("file".equals(url.getProtocol())) {
+                findClassNames(new File(url.toURI()), basePackage, classNames);
+            } else if ("jar".equals(url.getProtocol())) {
+                JarURLConnection connection = (JarURLConnection) url.openConnection();
+                connection.setUseCaches(false);
+                try (JarFile jarFile = connection.getJarFile()) {
+                    for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                        String name = e.nextElement().getName();
+                        if (name.startsWith(packagePath) && isPageClassFile(name)) {
+                            classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void findClassNames(File directory, String packageName, List<String> classNames) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                findClassNames(file, packageName + "." + name, classNames);
+            } else if (isPageClassFile(name)) {
+                classNames.add(packageName + "." + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    private static boolean isPageClassFile(String name) {
+        return name.endsWith(PAGE_SUFFIX + ".class") && name.indexOf('$') < 0;
+    }
+
+    private static Page newPage(Class<?> pageClass) throws ServletException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        MethodHandle constructor;
+        try {
+            Constructor<?> declaredConstructor = pageClass.getDeclaredConstructor();
+            declaredConstructor.setAccessible(true);
+            constructor = lookup.unreflectConstructor(declaredConstructor)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ServletException("Can't create page [pageClass=" + pageClass + "]", e);
+        }
+
+        Set<String> methodNames = new HashSet<>();
+        for (Class<?> clazz = pageClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (Method m : clazz.getDeclaredMethods()) {
+                if (getArgumentKinds(m) != null) {
+                    methodNames.add(m.getName());
+                }
+            }
+        }
+
+        Map<String, Action> actions = new HashMap<>();
+        for (String methodName : methodNames) {
+            Method method = findMethod(pageClass, methodName);
+            if (method != null) {
+                actions.put(methodName, newAction(lookup, method));
+            }
+        }
+
+        return new Page(pageClass, constructor, Collections.unmodifiableMap(actions));
+    }
+
+    /**
+     * Picks the action method the same way the request-time lookup used to: the
+     * most derived class declaring a suitable method wins, and two suitable
+     * methods with the same name in one class are an error.
+     */
+    private static Method findMethod(Class<?> pageClass, String methodName) throws ServletException {
+        for (Class<?> clazz = pageClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            Method method = null;
+            for (Method m : clazz.getDeclaredMethods()) {
+                if (m.getName().equals(methodName) && getArgumentKinds(m) != null) {
+                    if (method != null) {
+                        throw new ServletException("Multiple methods matched for " + methodName
+                                + " in class " + clazz.getName());
+                    }
+                    method = m;
+                }
+            }
+            if (method != null) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return argument binding plan of the action method or {@code null} if it isn't an action method.
+     */
+    private static ArgumentKind[] getArgumentKinds(Method method) {
+        if (!method.getReturnType().equals(void.class) || method.getParameterCount() > 3) {
+            return null;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        ArgumentKind[] argumentKinds = new ArgumentKind[parameterTypes.length];
+        int viewCount = 0;
+        int requestCount = 0;
+        int responseCount = 0;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (parameterTypes[i].equals(Map.class)) {
+                argumentKinds[i] = ArgumentKind.VIEW;
+                viewCount += 1;
+            } else if (parameterTypes[i].equals(HttpServletRequest.class)) {
+                argumentKinds[i] = ArgumentKind.REQUEST;
+                requestCount += 1;
+            } else if (parameterTypes[i].equals(HttpServletResponse.class)) {
+                argumentKinds[i] = ArgumentKind.RESPONSE;
+                responseCount += 1;
+            } else {
+                return null;
+            }
+        }
+        if (viewCount > 1 || requestCount > 1 || responseCount > 1) {
+            return null;
+        }
+        return argumentKinds;
+    }
+
+    private static Action newAction(MethodHandles.Lookup lookup, Method method) throws ServletException {
+        ArgumentKind[] argumentKinds = getArgumentKinds(method);
+
+        MethodHandle handle;
+        try {
+            method.setAccessible(true);
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new ServletException("Can't access action method [method=" + method + "]", e);
+        }
+
+        // Adapt every action to (page, view, request, response) once, so invocation needs no per-request plan.
+        Class<?>[] parameterTypes = new Class<?>[argumentKinds.length];
+        int[] reorder = new int[argumentKinds.length + 1];
+        boolean writesResponse = false;
+        for (int i = 0; i < argumentKinds.length; i++) {
+            parameterTypes[i] = argumentKinds[i].type;
+            reorder[i + 1] = argumentKinds[i].index;
+            writesResponse |= argumentKinds[i] == ArgumentKind.RESPONSE;
+        }
+        handle = handle.asType(MethodType.methodType(void.class, Object.class, parameterTypes));
+        handle = MethodHandles.permuteArguments(handle, INVOKER_TYPE, reorder);
+
+        AsyncTimeout asyncTimeout = method.getAnnotation(AsyncTimeout.class);
+        return new Action(method, handle, writesResponse, asyncTimeout != null ? asyncTimeout.value() : -1);
+    }
+
+    private enum ArgumentKind {
+        VIEW(Map.class, 1), REQUEST(HttpServletRequest.class, 2), RESPONSE(HttpServletResponse.class, 3);
+
+        private final Class<?> type;
+        private final int index;
+
+        ArgumentKind(Class<?> type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+    }
+
+    static class Page {
+        private final Class<?> pageClass;
+        private final MethodHandle constructor;
+        private final Map<String, Action> actions;
+
+        private Page(Class<?> pageClass, MethodHandle constructor, Map<String, Action> actions) {
+            this.pageClass = pageClass;
+            this.constructor = constructor;
+            this.actions = actions;
+        }
+
+        Class<?> getPageClass() {
+            return pageClass;
+        }
+
+        Action getAction(String name) {
+            return actions.get(name);
+        }
+
+        Object newInstance() throws ServletException {
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new ServletException("Can't create page [pageClass=" + pageClass + "]", e);
+            }
+        }
+    }
+
+    static class Action {
+        private final Method method;
+        private final MethodHandle invoker;
+        private final boolean writesResponse;
+        private final long asyncTimeoutMillis;
+
+        private Action(Method method, MethodHandle invoker, boolean writesResponse, long asyncTimeoutMillis) {
+            this.method = method;
+            this.invoker = invoker;
+            this.writesResponse = writesResponse;
+            this.asyncTimeoutMillis = asyncTimeoutMillis;
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        /**
+         * @return whether the action takes the response and writes it itself, so no template is rendered.
+         */
+        boolean isWritesResponse() {
+            return writesResponse;
+        }
+
+        /**
+         * @return {@link AsyncTimeout} of the action, -1 if it declares none.
+         */
+        long getAsyncTimeoutMillis() {
+            return asyncTimeoutMillis;
+        }
+
+        void invoke(Object page, Map<String, Object> view, HttpServletRequest request,
+                    HttpServletResponse response) throws Throwable {
+            invoker.invokeExact(page, (Map) view, request, response);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.itmo.wp.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the page of a request URI in a trie of the paths of all pages, built once
+ * from the {@link PageRegistry}.
+ *
+ * <p>A path is the URI with runs of {@code '/'} as package separators, leading and
+ * trailing ones ignored, so {@code /misc/help}, {@code //misc/help/} and
+ * {@code /misc.help} all name {@code <basePackage>.misc.HelpPage}, and the empty
+ * path names the index page. The first letter of the class name may be given in
+ * either case. Matching walks the trie along the characters of the URI as they are,
+ * so it allocates nothing and gives up on an unknown path at its first unknown
+ * character.
+ */
+final class PageRouter {
+    private static final String PAGE_SUFFIX = "Page";
+
+    /**
+     * Child labels of every node, sorted.
+     */
+    private final char[][] labels;
+    /**
+     * Child nodes of every node, in the order of their labels.
+     */
+    private final int[][] children;
+    /**
+     * Page of every node, {@code null} for a node that is only a prefix.
+     */
+    private final PageRegistry.Page[] pages;
+
+    private PageRouter(char[][] labels, int[][] children, PageRegistry.Page[] pages) {
+        this.labels = labels;
+        this.children = children;
+        this.pages = pages;
+    }
+
+    /**
+     * @param indexPage page of the empty path.
+     */
+    static PageRouter newPageRouter(PageRegistry pageRegistry, String basePackage, PageRegistry.Page indexPage) {
+        Builder builder = new Builder();
+        builder.pages.set(0, indexPage);
+        String prefix = basePackage + ".";
+        for (PageRegistry.Page page : pageRegistry.getPages()) {
+            String className = page.getPageClass().getName();
+            if (!className.startsWith(prefix) || !className.endsWith(PAGE_SUFFIX)) {
+                continue;
+            }
+            String path = className.substring(prefix.length(), className.length() - PAGE_SUFFIX.length());
+            int nameIndex = path.lastIndexOf('.') + 1;
+            if (nameIndex == path.length() || !Character.isUpperCase(path.charAt(nameIndex))) {
+                // The first letter of a class name is always capitalized, so it can't be reached.
+                continue;
+            }
+            builder.add(path, page);
+            builder.add(path.substring(0, nameIndex) + Character.toLowerCase(path.charAt(nameIndex))
+                    + path.substring(nameIndex + 1), page);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return page of the URI or {@code null} if there is none.
+     */
+    PageRegistry.Page route(String uri) {
+        int node = 0;
+        boolean separator = false;
+        for (int i = 0, length = uri.length(); i < length; i++) {
+            char c = uri.charAt(i);
+            if (c == '/') {
+                separator = node != 0;
+                continue;
+            }
+            if (separator) {
+                separator = false;
+                node = getChild(node, '.');
+                if (node < 0) {
+                    return null;
+                }
+            }
+            node = getChild(node, c);
+            if (node < 0) {
+                return null;
+            }
+        }
+        return pages[node];
+    }
+
+    private int getChild(int node, char label) {
+        char[] nodeLabels = labels[node];
+        for (int i = 0; i < nodeLabels.length; i++) {
+            if (nodeLabels[i] == label) {
+                return children[node][i];
+            }
+            if (nodeLabels[i] > label) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Builder {
+        private final List<StringBuilder> labels = new ArrayList<>();
+        private final List<List<Integer>> children = new ArrayList<>();
+        private final List<PageRegistry.Page> pages = new ArrayList<>();
+
+        private Builder() {
+            newNode();
+        }
+
+        private int newNode() {
+            labels.add(new StringBuilder());
+            children.add(new ArrayList<>());
+            pages.add(null);
+            return pages.size() - 1;
+        }
+
+        private void add(String path, PageRegistry.Page page) {
+            int node = 0;
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                StringBuilder nodeLabels = labels.get(node);
+                int index = 0;
+                while (index < nodeLabels.length() && nodeLabels.charAt(index) < c) {
+                    index++;
+                }
+                if (index < nodeLabels.length() && nodeLabels.charAt(index) == c) {
+                    node = children.get(node).get(index);
+                } else {
+                    int child = newNode();
+                    nodeLabels.insert(index, c);
+                    children.get(node).add(index, child);
+                    node = child;
+                }
+            }
+            pages.set(node, page);
+        }
+
+        private PageRouter build() {
+            int nodeCount = pages.size();
+            char[][] labelArrays = new char[nodeCount][];
+            int[][] childArrays = new int[nodeCount][];
+            for (int node = 0; node < nodeCount; node++) {
+                labelArrays[node] = labels.get(node).toString().toCharArray();
+                childArrays[node] = children.get(node).stream().mapToInt(Integer::intValue).toArray();
+            }
+            return new PageRouter(labelArrays, childArrays, pages.toArray(new PageRegistry.Page[0]));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.itmo.wp.web;
+
+import freemarker.template.Template;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of rendered pages as UTF-8 bytes.
+ *
+ * <p>A page opts in by putting a string into its view under
+ * {@link FrontServlet#RENDER_CACHE_KEY} that, with the template, determines the whole
+ * output. The template is part of the key by identity: it stands for both the
+ * locale and the template version, so an edited template in development is a new
+ * key. The cache is split into segments, each an LRU map under its own lock and
+ * bounded by the total size of its pages.
+ */
+class RenderCache {
+    private final Segment[] segments;
+    private final int mask;
+
+    /**
+     * @param segmentCount power of two.
+     */
+    RenderCache(int segmentCount, long capacityBytes) {
+        if (Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("Segment count must be a power of two [segmentCount="
+                    + segmentCount + "]");
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(capacityBytes / segmentCount);
+        }
+        mask = segmentCount - 1;
+    }
+
+    private Segment getSegment(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    byte[] get(Template template, String cacheKey) {
+        Key key = new Key(template, cacheKey);
+        Segment segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    void put(Template template, String cacheKey, byte[] page) {
+        Key key = new Key(template, cacheKey);
+        Segment segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, page);
+        }
+    }
+
+    private static final class Key {
+        private final Template template;
+        private final String cacheKey;
+
+        private Key(Template template, String cacheKey) {
+            this.template = template;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return template == key.template && cacheKey.equals(key.cacheKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(template) + cacheKey.hashCode();
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Key, byte[]> {
+        private final long capacityBytes;
+        private long sizeBytes;
+
+        private Segment(long capacityBytes) {
+            super(16, 0.75f, true);
+            this.capacityBytes = capacityBytes;
+        }
+
+        @Override
+        public byte[] put(Key key, byte[] page) {
+            if (page.length > capacityBytes) {
+                return null;
+            }
+            byte[] previous = super.put(key, page);
+            sizeBytes += page.length - (previous != null ? previous.length : 0);
+            for (Iterator<byte[]> i = values().iterator(); sizeBytes > capacityBytes && i.hasNext(); ) {
+                sizeBytes -= i.next().length;
+                i.remove();
+            }
+            return previous;
+        }
+    }
+}
@@ -5,30 +5,267 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpFilter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Serves static files of the web application from memory.
+ *
+ * <p>All files except {@code WEB-INF} and {@code META-INF} are read at start into an
+ * immutable map from URI to {@link Asset}, with a gzip variant of text files, so a
+ * request is a single hash lookup: a hit is written from memory, honouring
+ * {@code If-None-Match} and {@code If-Modified-Since}, and anything else goes on
+ * down the chain.
+ *
+ * <p>The version of every file, a hash of its content, is published in the
+ * {@link #ASSET_VERSIONS_ATTRIBUTE} context attribute for templates to link files as
+ * {@code <uri>?v=<version>}. Only a request for the current version is cached by
+ * browsers for {@code maxAgeSeconds}, since its URL changes with the content; any
+ * other is revalidated every time with its {@code ETag}.
+ *
+ * <p>When the sources ({@code ../../src/main/webapp}) are next to the deployment,
+ * they take precedence, are checked for changes on every hit and are not cached by
+ * browsers, so edits and new files show up without a redeploy.
+ */
 public class StaticFilter extends HttpFilter {
+    /**
+     * Context attribute with the unmodifiable map from URI to version of every file.
+     */
+    static final String ASSET_VERSIONS_ATTRIBUTE = StaticFilter.class.getName() + ".assetVersions";
+    private static final long MAX_CACHED_SIZE = 1 << 20;
+    private static final String DEFAULT_MAX_AGE = "31536000";
+    private static final String REVALIDATE_CACHE_CONTROL = "no-cache";
+
+    private Map<String, Asset> assets;
+    private File sourceDir;
+    private Path canonicalSourceDir;
+    private boolean development;
+    private String versionedCacheControl;
+    private final Metrics metrics = Metrics.getInstance();
+
+    @Override
+    public void init() throws ServletException {
+        String rootRealPath = getServletContext().getRealPath("/");
+        File targetDir = new File(rootRealPath);
+        sourceDir = new File(rootRealPath, "../../src/main/webapp");
+        development = sourceDir.isDirectory();
+
+        String maxAge = getInitParameter("maxAgeSeconds");
+        versionedCacheControl = development ? REVALIDATE_CACHE_CONTROL
+                : "public, max-age=" + (maxAge != null ? maxAge : DEFAULT_MAX_AGE) + ", immutable";
+
+        Map<String, Asset> assets = new HashMap<>();
+        try {
+            addAssets(assets, targetDir, "");
+            if (development) {
+                canonicalSourceDir = sourceDir.getCanonicalFile().toPath();
+                addAssets(assets, sourceDir, "");
+            }
+        } catch (IOException e) {
+            throw new ServletException("Can't load static files [rootRealPath=" + rootRealPath + "]", e);
+        }
+        this.assets = Collections.unmodifiableMap(assets);
+
+        Map<String, String> versions = new HashMap<>();
+        for (Map.Entry<String, Asset> entry : assets.entrySet()) {
+            versions.put(entry.getKey(), entry.getValue().version);
+        }
+        getServletContext().setAttribute(ASSET_VERSIONS_ATTRIBUTE, Collections.unmodifiableMap(versions));
+    }
+
+    private void addAssets(Map<String, Asset> assets, File dir, String uri) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileUri = uri + "/" + file.getName();
+            if (file.isDirectory()) {
+                if (!"/WEB-INF".equals(fileUri) && !"/META-INF".equals(fileUri)) {
+                    addAssets(assets, file, fileUri);
+                }
+            } else if (file.isFile()) {
+                assets.put(fileUri, newAsset(file));
+            }
+        }
+    }
+
+    private Asset newAsset(File file) throws IOException {
+        String contentType = getServletContext().getMimeType(file.getName());
+        long lastModified = file.lastModified();
+        if (file.length() > MAX_CACHED_SIZE) {
+            return new Asset(file, contentType, null, null,
+                    Long.toHexString(lastModified) + "-" + Long.toHexString(file.length()), lastModified);
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        String version = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length);
+
+        byte[] gzipContent = null;
+        if (isCompressible(contentType)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length);
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(buffer)) {
+                gzipOutputStream.write(content);
+            }
+            if (buffer.size() < content.length) {
+                gzipContent = buffer.toByteArray();
+            }
+        }
+        return new Asset(file, contentType, content, gzipContent, version, lastModified);
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType != null && (contentType.startsWith("text/") || contentType.endsWith("javascript")
+                || contentType.endsWith("json") || contentType.endsWith("xml"));
+    }
+
     @Override
     protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        long startNanos = System.nanoTime();
         response.setCharacterEncoding(StandardCharsets.UTF_8.name());
 
-        String uri = request.getRequestURI();
-        String rootRealPath = getServletContext().getRealPath("/");
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        Asset asset = assets.get(uri);
+        if (development) {
+            if (asset == null) {
+                File file = getSourceFile(uri);
+                if (file != null) {
+                    asset = newAsset(file);
+                }
+            } else if (asset.file.lastModified() != asset.lastModified) {
+                asset = asset.file.isFile() ? newAsset(asset.file) : null;
+            }
+        }
+        if (asset == null) {
+            metrics.staticMisses.increment();
+            chain.doFilter(request, response);
+            return;
+        }
 
-        File file = new File(new File(rootRealPath, "../../src/main/webapp"), uri);
-        if (!file.isFile()) {
-            file = new File(rootRealPath, uri);
+        metrics.staticHits.increment();
+        try {
+            serve(request, response, asset);
+        } finally {
+            metrics.staticLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return file of the sources the URI names, {@code null} if there is none or it is
+     * outside the sources or in {@code WEB-INF} or {@code META-INF}, however the URI spells it.
+     */
+    private File getSourceFile(String uri) throws IOException {
+        Path path = new File(sourceDir, uri).getCanonicalFile().toPath();
+        if (!path.startsWith(canonicalSourceDir) || path.equals(canonicalSourceDir)) {
+            return null;
+        }
+        String topName = canonicalSourceDir.relativize(path).getName(0).toString();
+        if ("WEB-INF".equalsIgnoreCase(topName) || "META-INF".equalsIgnoreCase(topName)) {
+            return null;
+        }
+        File file = path.toFile();
+        return file.isFile() ? file : null;
+    }
+
+    private void serve(HttpServletRequest request, HttpServletResponse response, Asset asset) throws IOException {
+
+        boolean gzip = asset.gzipContent != null && acceptsGzip(request);
+        // The encodings differ in bytes, so they get different strong validators.
+        String etag = gzip ? asset.etag.substring(0, asset.etag.length() - 1) + "-gzip\"" : asset.etag;
+
+        response.setContentType(asset.contentType);
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", asset.lastModified);
+        response.setHeader("Cache-Control", asset.isVersion(request.getQueryString()) ? versionedCacheControl
+                : REVALIDATE_CACHE_CONTROL);
+        if (asset.gzipContent != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (isNotModified(request, etag, asset.lastModified)) {
+            metrics.staticNotModified.increment();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] content = asset.content;
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            content = asset.gzipContent;
         }
 
-        if (file.isFile()) {
-            response.setContentType(getServletContext().getMimeType(file.getCanonicalPath()));
-            response.setContentLengthLong(file.length());
-            Files.copy(file.toPath(), response.getOutputStream());
+        if (content == null) {
+            response.setContentLengthLong(asset.file.length());
+            if (!"HEAD".equals(request.getMethod())) {
+                Files.copy(asset.file.toPath(), response.getOutputStream());
+            }
         } else {
-            chain.doFilter(request, response);
+            response.setContentLength(content.length);
+            if (!"HEAD".equals(request.getMethod())) {
+                response.getOutputStream().write(content);
+            }
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return "*".equals(ifNoneMatch.trim()) || ifNoneMatch.contains(etag);
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip") && !acceptEncoding.contains("gzip;q=0");
+    }
+
+    private static final class Asset {
+        private final File file;
+        private final String contentType;
+        private final byte[] content;
+        private final byte[] gzipContent;
+        private final String version;
+        private final String etag;
+        private final long lastModified;
+
+        /**
+         * @param content whole file or {@code null} if it is too large to keep in memory.
+         * @param version hash of the content, or modification time and length of a file too large to keep.
+         */
+        private Asset(File file, String contentType, byte[] content, byte[] gzipContent, String version,
+                      long lastModified) {
+            this.file = file;
+            this.contentType = contentType;
+            this.content = content;
+            this.gzipContent = gzipContent;
+            this.version = version;
+            this.etag = "\"" + version + "\"";
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return whether the query string of a request asks for this version of the file.
+         */
+        private boolean isVersion(String queryString) {
+            return queryString != null && queryString.length() == version.length() + 2
+                    && queryString.startsWith("v=") && queryString.endsWith(version);
         }
     }
 }
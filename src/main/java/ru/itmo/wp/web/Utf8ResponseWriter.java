@@ -0,0 +1,188 @@
+package ru.itmo.wp.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Writer that encodes UTF-8 by hand into a pooled buffer and passes it to the output
+ * stream in large chunks. The buffer goes back to the pool on {@link #close()}; the
+ * pool is not per thread, as requests may run on short-lived virtual threads.
+ *
+ * <p>FreeMarker writes the static text of a template as the same {@code char[]} of
+ * the parsed template every time. When templates never change (production mode),
+ * such arrays are encoded once and remembered by identity, so the layout is copied
+ * as bytes instead of being encoded again on every request.
+ */
+class Utf8ResponseWriter extends Writer {
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MIN_PRE_ENCODED_LENGTH = 64;
+    private static final int MAX_PRE_ENCODED_COUNT = 4096;
+    private static final AtomicReferenceArray<byte[]> BUFFERS = new AtomicReferenceArray<>(64);
+
+    private final OutputStream out;
+    private final Map<char[], byte[]> preEncoded;
+    private byte[] buffer;
+    private int position;
+    private char highSurrogate;
+
+    /**
+     * @param preEncoded identity map of encoded template text or {@code null} not to use one.
+     */
+    Utf8ResponseWriter(OutputStream out, Map<char[], byte[]> preEncoded) {
+        this.out = out;
+        this.preEncoded = preEncoded;
+        buffer = acquireBuffer();
+    }
+
+    private static int getPoolIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & (BUFFERS.length() - 1);
+    }
+
+    private static byte[] acquireBuffer() {
+        int index = getPoolIndex();
+        for (int i = 0; i < 4; i++) {
+            byte[] buffer = BUFFERS.getAndSet((index + i) & (BUFFERS.length() - 1), null);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        int index = getPoolIndex();
+        for (int i = 0; i < 4; i++) {
+            if (BUFFERS.compareAndSet((index + i) & (BUFFERS.length() - 1), null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return map to share between writers rendering templates that don't change.
+     */
+    static Map<char[], byte[]> newPreEncodedMap() {
+        return new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        if (preEncoded != null && offset == 0 && length == chars.length && length >= MIN_PRE_ENCODED_LENGTH
+                && highSurrogate == 0) {
+            // char[] has identity equals and hashCode, which is what the map needs.
+            byte[] bytes = preEncoded.get(chars);
+            if (bytes == null) {
+                bytes = encode(chars);
+                if (preEncoded.size() < MAX_PRE_ENCODED_COUNT) {
+                    preEncoded.put(chars, bytes);
+                }
+            }
+            writeBytes(bytes);
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String s, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        writeChar((char) c);
+    }
+
+    private static byte[] encode(char[] chars) {
+        // Not through this class, not to take a second buffer from the pool.
+        return new String(chars).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > BUFFER_SIZE - position) {
+            flushBuffer();
+            if (bytes.length > BUFFER_SIZE / 2) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (position > BUFFER_SIZE - 4) {
+            flushBuffer();
+        }
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            buffer[position++] = '?';
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (position > BUFFER_SIZE - 4) {
+                flushBuffer();
+            }
+            buffer[position++] = '?';
+        }
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flushes, but does not close the output stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            flush();
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.Phase;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computer opponent of {@link TicTacToePage}.
+ *
+ * <p>The classic 3x3 game is solved once when the class is loaded, and replies
+ * there are a lookup in a table indexed by the base-3 code of the board. Other
+ * boards are searched by negamax with alpha-beta pruning and iterative deepening
+ * under a time and node budget, sharing one Zobrist-hashed transposition table
+ * between all games. Replies found by the search are remembered in the shared
+ * {@link TicTacToePositionCache}, so a position met again isn't searched twice.
+ */
+final class TicTacToeAi {
+    private static final int WIN_SCORE = 1 << 30;
+    private static final int WIN_THRESHOLD = WIN_SCORE - 1024;
+    private static final long TIME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    private static final long NODE_BUDGET = 1_000_000;
+    private static final int MAX_DEPTH = 32;
+    private static final int NEIGHBOURHOOD = 2;
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private static final TranspositionTable TRANSPOSITION_TABLE = new TranspositionTable(20);
+    private static final byte[] CLASSIC_MOVES = solveClassic();
+
+    private final State state;
+    private final int size;
+    private final int cellCount;
+    private final long deadline;
+    private final long nodeBudget;
+    private final int[][] moves;
+    private final int[][] moveScores;
+    private final int[] marks;
+    private int mark;
+    private long nodes;
+    private boolean aborted;
+
+    private TicTacToeAi(State state, long timeBudgetNanos, long nodeBudget) {
+        this.state = state;
+        size = state.getSize();
+        cellCount = size * size;
+        deadline = System.nanoTime() + timeBudgetNanos;
+        this.nodeBudget = nodeBudget;
+        moves = new int[MAX_DEPTH + 1][cellCount];
+        moveScores = new int[MAX_DEPTH + 1][cellCount];
+        marks = new int[cellCount];
+    }
+
+    /**
+     * @return cell index of the move for the side to move, the state is left unchanged.
+     */
+    static int chooseMove(State state) {
+        if (isClassic(state)) {
+            return CLASSIC_MOVES[getClassicCode(state)];
+        }
+        int move = TicTacToeOpeningBook.findMove(state);
+        if (move >= 0) {
+            return move;
+        }
+
+        int symmetry = state.getCanonicalSymmetry();
+        long canonicalHash = state.getHash(symmetry);
+        TicTacToePositionCache.CachedPosition cached = TicTacToePositionCache.SHARED.get(canonicalHash);
+        if (cached != null) {
+            move = state.transformBack(symmetry, cached.getBestReply());
+            if (state.isFree(move)) {
+                return move;
+            }
+        }
+
+        move = search(state, TIME_BUDGET_NANOS, NODE_BUDGET);
+        TicTacToePositionCache.SHARED.put(canonicalHash,
+                new TicTacToePositionCache.CachedPosition(state.transform(symmetry, move)));
+        return move;
+    }
+
+    /**
+     * Searches the position ignoring the precomputed tables, the state is left unchanged.
+     */
+    static int search(State state, long timeBudgetNanos, long nodeBudget) {
+        return new TicTacToeAi(state.copy(), timeBudgetNanos, nodeBudget).search();
+    }
+
+    private static boolean isClassic(State state) {
+        return state.getSize() == 3 && state.getInRowCount() == 3;
+    }
+
+    private static int getClassicCode(State state) {
+        int code = 0;
+        for (int index = 8; index >= 0; index--) {
+            code = code * 3 + (state.getStone(index) + 3) % 3;
+        }
+        return code;
+    }
+
+    private static byte[] solveClassic() {
+        byte[] bestMoves = new byte[19683];
+        byte[] scores = new byte[bestMoves.length];
+        Arrays.fill(bestMoves, (byte) -1);
+        solveClassic(new State(), bestMoves, scores);
+        return bestMoves;
+    }
+
+    /**
+     * @return score of the position for the side to move, quicker wins score higher.
+     */
+    private static int solveClassic(State state, byte[] bestMoves, byte[] scores) {
+        int code = getClassicCode(state);
+        if (bestMoves[code] >= 0) {
+            return scores[code];
+        }
+
+        int bestScore = Integer.MIN_VALUE;
+        int bestMove = -1;
+        for (int index = 0; index < 9; index++) {
+            if (state.isFree(index)) {
+                int lastMove = state.getLastMove();
+                state.play(index);
+                int score;
+                if (state.phase == Phase.RUNNING) {
+                    score = -solveClassic(state, bestMoves, scores);
+                } else {
+                    score = state.phase == Phase.DRAW ? 0 : 1 + state.getFreeCells();
+                }
+                state.undo(index, lastMove);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = index;
+                }
+            }
+        }
+
+        bestMoves[code] = (byte) bestMove;
+        scores[code] = (byte) bestScore;
+        return bestScore;
+    }
+
+    private int search() {
+        int bestMove = -1;
+        int maxDepth = Math.min(MAX_DEPTH, state.getFreeCells());
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int count = generateMoves(0, TRANSPOSITION_TABLE.getHashMove(state.getHash()));
+            int alpha = -WIN_SCORE;
+            int iterationMove = -1;
+            for (int i = 0; i < count; i++) {
+                int move = moves[0][i];
+                int score = scoreMove(move, depth, -WIN_SCORE, -alpha, 0);
+                if (aborted) {
+                    break;
+                }
+                if (score > alpha || iterationMove < 0) {
+                    alpha = score;
+                    iterationMove = move;
+                }
+            }
+            if (aborted) {
+                if (bestMove < 0) {
+                    bestMove = iterationMove >= 0 ? iterationMove : moves[0][0];
+                }
+                break;
+            }
+            bestMove = iterationMove;
+            TRANSPOSITION_TABLE.store(state.getHash(), depth, TranspositionTable.EXACT, alpha, bestMove);
+            if (Math.abs(alpha) >= WIN_THRESHOLD) {
+                break;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Plays the move and returns its score for the side that made it.
+     */
+    private int scoreMove(int move, int depth, int alpha, int beta, int ply) {
+        int lastMove = state.getLastMove();
+        state.play(move);
+        int score;
+        if (state.phase == Phase.RUNNING) {
+            score = -negamax(depth - 1, alpha, beta, ply + 1);
+        } else {
+            score = state.phase == Phase.DRAW ? 0 : WIN_SCORE - ply - 1;
+        }
+        state.undo(move, lastMove);
+        return score;
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        if ((++nodes & 1023) == 0 && (nodes >= nodeBudget || System.nanoTime() >= deadline)) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (depth == 0 || ply >= MAX_DEPTH) {
+            return evaluate();
+        }
+
+        long hash = state.getHash();
+        long entry = TRANSPOSITION_TABLE.probe(hash);
+        int hashMove = -1;
+        if (entry != TranspositionTable.NONE) {
+            hashMove = TranspositionTable.getMove(entry);
+            if (TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.getScore(entry), ply);
+                int flag = TranspositionTable.getFlag(entry);
+                if (flag == TranspositionTable.EXACT) {
+                    return score;
+                } else if (flag == TranspositionTable.LOWER) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int bestScore = -WIN_SCORE;
+        int bestMove = -1;
+        int count = generateMoves(ply, hashMove);
+        for (int i = 0; i < count; i++) {
+            int move = moves[ply][i];
+            int score = scoreMove(move, depth, -beta, -alpha, ply);
+            if (aborted) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        int flag = bestScore <= originalAlpha ? TranspositionTable.UPPER
+                : (bestScore >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT);
+        TRANSPOSITION_TABLE.store(hash, depth, flag, toTable(bestScore, ply), bestMove);
+        return bestScore;
+    }
+
+    /**
+     * Win scores are stored relative to the position so they stay valid at any ply.
+     */
+    private static int toTable(int score, int ply) {
+        return score >= WIN_THRESHOLD ? score + ply : (score <= -WIN_THRESHOLD ? score - ply : score);
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score >= WIN_THRESHOLD ? score - ply : (score <= -WIN_THRESHOLD ? score + ply : score);
+    }
+
+    private int generateMoves(int ply, int hashMove) {
+        return generateMoves(state, moves[ply], moveScores[ply], marks, ++mark, hashMove);
+    }
+
+    /**
+     * Fills the array with free cells near the stones already played, or with the
+     * centre of an empty board, the hash move first and the rest by the number of
+     * adjacent stones.
+     *
+     * @param marks scratch array of the board size, cells equal to {@code mark} are skipped.
+     * @return number of moves.
+     */
+    static int generateMoves(State state, int[] plyMoves, int[] plyScores, int[] marks, int mark,
+                             int hashMove) {
+        int size = state.getSize();
+        int cellCount = size * size;
+        int count = 0;
+
+        if (state.getFreeCells() == cellCount) {
+            plyMoves[count++] = (size / 2) * size + size / 2;
+            return count;
+        }
+
+        for (int index = 0; index < cellCount; index++) {
+            if (state.isFree(index)) {
+                continue;
+            }
+            int row = index / size;
+            int column = index % size;
+            for (int r = Math.max(0, row - NEIGHBOURHOOD); r <= Math.min(size - 1, row + NEIGHBOURHOOD); r++) {
+                for (int c = Math.max(0, column - NEIGHBOURHOOD);
+                     c <= Math.min(size - 1, column + NEIGHBOURHOOD); c++) {
+                    int neighbour = r * size + c;
+                    if (marks[neighbour] != mark && state.isFree(neighbour)) {
+                        marks[neighbour] = mark;
+                        int score = neighbour == hashMove ? Integer.MAX_VALUE
+                                : countAdjacentStones(state, r, c);
+                        int i = count++;
+                        for (; i > 0 && plyScores[i - 1] < score; i--) {
+                            plyMoves[i] = plyMoves[i - 1];
+                            plyScores[i] = plyScores[i - 1];
+                        }
+                        plyMoves[i] = neighbour;
+                        plyScores[i] = score;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countAdjacentStones(State state, int row, int column) {
+        int size = state.getSize();
+        int count = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for (int c = Math.max(0, column - 1); c <= Math.min(size - 1, column + 1); c++) {
+                if (!state.isFree(r * size + c)) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums every window of K cells holding the stones of one side only, weighted
+     * by how many stones it has, from the point of view of the side to move.
+     */
+    private int evaluate() {
+        int inRowCount = state.getInRowCount();
+        int score = 0;
+        for (int[] direction : DIRECTIONS) {
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    int endRow = row + (inRowCount - 1) * direction[0];
+                    int endColumn = column + (inRowCount - 1) * direction[1];
+                    if (endRow >= size || endColumn < 0 || endColumn >= size) {
+                        continue;
+                    }
+                    int crosses = 0;
+                    int noughts = 0;
+                    for (int i = 0; i < inRowCount; i++) {
+                        int stone = state.getStone((row + i * direction[0]) * size + column + i * direction[1]);
+                        if (stone > 0) {
+                            crosses += 1;
+                        } else if (stone < 0) {
+                            noughts += 1;
+                        }
+                    }
+                    if (noughts == 0) {
+                        score += getWeight(crosses);
+                    } else if (crosses == 0) {
+                        score -= getWeight(noughts);
+                    }
+                }
+            }
+        }
+        return state.getCrossesMove() ? score : -score;
+    }
+
+    private static int getWeight(int stones) {
+        return stones == 0 ? 0 : 1 << Math.min(16, 3 * (stones - 1));
+    }
+
+    /**
+     * Fixed-size table shared by all searches without locking. An entry is stored
+     * as two longs, the key xor-ed with the value, so a slot torn by concurrent
+     * writers fails the key check instead of returning a wrong value.
+     */
+    private static final class TranspositionTable {
+        private static final long NONE = 0;
+        private static final int EXACT = 1;
+        private static final int LOWER = 2;
+        private static final int UPPER = 3;
+
+        private final long[] keys;
+        private final long[] values;
+        private final int mask;
+
+        private TranspositionTable(int bits) {
+            keys = new long[1 << bits];
+            values = new long[1 << bits];
+            mask = (1 << bits) - 1;
+        }
+
+        private long probe(long hash) {
+            int index = (int) (hash ^ (hash >>> 32)) & mask;
+            long value = values[index];
+            return (keys[index] ^ value) == hash ? value : NONE;
+        }
+
+        private int getHashMove(long hash) {
+            long entry = probe(hash);
+            return entry == NONE ? -1 : getMove(entry);
+        }
+
+        private void store(long hash, int depth, int flag, int score, int move) {
+            int index = (int) (hash ^ (hash >>> 32)) & mask;
+            long value = ((long) score << 32) | ((long) (move + 1) << 16) | ((long) depth << 2) | flag;
+            values[index] = value;
+            keys[index] = hash ^ value;
+        }
+
+        private static int getScore(long entry) {
+            return (int) (entry >> 32);
+        }
+
+        private static int getMove(long entry) {
+            return (int) ((entry >>> 16) & 0xFFFF) - 1;
+        }
+
+        private static int getDepth(long entry) {
+            return (int) ((entry >>> 2) & 0x3FFF);
+        }
+
+        private static int getFlag(long entry) {
+            return (int) (entry & 3);
+        }
+    }
+}
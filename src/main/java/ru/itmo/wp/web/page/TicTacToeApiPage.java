@@ -0,0 +1,166 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Move API for bots: plays moves in several games per request and answers
+ * with the new states, without a redirect or a template.
+ *
+ * <p>Every {@code game} parameter is a game followed by its moves, all separated by
+ * colons: {@code <token>:3_4:5_5}. A game is the token of an earlier answer, or
+ * {@code new-<size>-<inRowCount>} with an optional {@code -computer} suffix for a
+ * new game. A game stops at its first illegal move. A request may hold up to
+ * {@value #MAX_GAMES} games and {@value #MAX_MOVES} moves, of which up to
+ * {@value #MAX_COMPUTER_MOVES} in games against the computer, whose every reply may
+ * take a search of up to 300 ms; a larger one is answered with 400 and not played.
+ *
+ * <p>The answer is JSON, {@code {"games":[{"state":"<token>","phase":"RUNNING",
+ * "crossesMove":true,"applied":2,"error":false}]}} in request order, or with
+ * {@code format=binary} a sequence of records: applied move count as an unsigned
+ * short, error flag and token length as unsigned bytes, then the decoded token bytes.
+ */
+@SuppressWarnings({"unused", "RedundantSuppression"})
+public class TicTacToeApiPage {
+    private static final String NEW_GAME_PREFIX = "new-";
+    private static final String COMPUTER_SUFFIX = "-computer";
+    private static final int MAX_GAMES = 100;
+    private static final int MAX_MOVES = 1024;
+    private static final int MAX_COMPUTER_MOVES = 10;
+
+    private void action(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        TicTacToeStateToken tokens = TicTacToeStateToken.getInstance(request.getServletContext());
+        TicTacToeMoveLog moveLog = TicTacToeMoveLog.getInstance(request.getServletContext());
+        String[] games = request.getParameterValues("game");
+        if (games == null) {
+            games = new String[0];
+        }
+        if (games.length > MAX_GAMES) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many games [games=" + games.length
+                    + ", maxGames=" + MAX_GAMES + "]");
+            return;
+        }
+
+        String[][] moves = new String[games.length][];
+        State[] states = new State[games.length];
+        int moveCount = 0;
+        int computerMoveCount = 0;
+        for (int i = 0; i < games.length; i++) {
+            moves[i] = games[i].split(":");
+            states[i] = parseGame(tokens, moves[i][0]);
+            moveCount += moves[i].length - 1;
+            if (states[i] != null && states[i].getAgainstComputer()) {
+                computerMoveCount += moves[i].length - 1;
+            }
+        }
+        if (moveCount > MAX_MOVES || computerMoveCount > MAX_COMPUTER_MOVES) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Too many moves [moves=" + moveCount
+                    + ", computerMoves=" + computerMoveCount + ", maxMoves=" + MAX_MOVES
+                    + ", maxComputerMoves=" + MAX_COMPUTER_MOVES + "]");
+            return;
+        }
+
+        String[] results = new String[games.length];
+        int[] applied = new int[games.length];
+        boolean[] errors = new boolean[games.length];
+        for (int i = 0; i < games.length; i++) {
+            State state = states[i];
+            if (state == null) {
+                errors[i] = true;
+                continue;
+            }
+            if (moveLog != null && moves[i][0].startsWith(NEW_GAME_PREFIX)) {
+                moveLog.logStart(state);
+            }
+            for (int j = 1; j < moves[i].length; j++) {
+                if (!applyMove(state, moveLog, moves[i][j])) {
+                    errors[i] = true;
+                    break;
+                }
+                applied[i] += 1;
+            }
+            results[i] = tokens.encode(state);
+        }
+
+        if ("binary".equals(request.getParameter("format"))) {
+            response.setContentType("application/octet-stream");
+            DataOutputStream out = new DataOutputStream(response.getOutputStream());
+            for (int i = 0; i < games.length; i++) {
+                byte[] token = results[i] == null ? new byte[0] : Base64.getUrlDecoder().decode(results[i]);
+                out.writeShort(applied[i]);
+                out.writeByte(errors[i] ? 1 : 0);
+                out.writeByte(token.length);
+                out.write(token);
+            }
+            out.flush();
+        } else {
+            response.setContentType("application/json");
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            PrintWriter out = response.getWriter();
+            out.print("{\"games\":[");
+            for (int i = 0; i < games.length; i++) {
+                if (i > 0) {
+                    out.print(',');
+                }
+                if (states[i] == null) {
+                    out.print("{\"state\":null,\"applied\":0,\"error\":true}");
+                } else {
+                    out.print("{\"state\":\"" + results[i] + "\",\"phase\":\"" + states[i].getPhase()
+                            + "\",\"crossesMove\":" + states[i].getCrossesMove()
+                            + ",\"applied\":" + applied[i] + ",\"error\":" + errors[i] + "}");
+                }
+            }
+            out.print("]}");
+            out.flush();
+        }
+    }
+
+    /**
+     * @return game of the token or new game description, {@code null} if it is invalid.
+     */
+    private static State parseGame(TicTacToeStateToken tokens, String game) {
+        if (!game.startsWith(NEW_GAME_PREFIX)) {
+            return tokens.decode(game);
+        }
+
+        boolean againstComputer = game.endsWith(COMPUTER_SUFFIX);
+        String[] parameters = game.substring(NEW_GAME_PREFIX.length(),
+                game.length() - (againstComputer ? COMPUTER_SUFFIX.length() : 0)).split("-");
+        if (parameters.length != 2) {
+            return null;
+        }
+        try {
+            return new State(Integer.parseInt(parameters[0]), Integer.parseInt(parameters[1]), againstComputer);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean applyMove(State state, TicTacToeMoveLog moveLog, String move) {
+        int separator = move.indexOf('_');
+        if (separator < 0) {
+            return false;
+        }
+        int row;
+        int column;
+        try {
+            row = Integer.parseInt(move.substring(0, separator));
+            column = Integer.parseInt(move.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        int fromVersion = state.getVersion();
+        if (!TicTacToePage.applyMove(state, row, column)) {
+            return false;
+        }
+        TicTacToePage.recordMoves(moveLog, state, fromVersion, row * state.getSize() + column);
+        return true;
+    }
+}
@@ -0,0 +1,441 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.Phase;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only log of the starts and moves of every game, so finished games outlive
+ * their sessions and tokens.
+ *
+ * <p>The log is a directory of segments {@code moves-<number>.log} of
+ * {@value #SEGMENT_SIZE} bytes, each a sequence of {@value #RECORD_SIZE}-byte
+ * records:
+ * <pre>
+ *  0  game id  long
+ *  8  ply      short  stones on the board after the move, 0 for a start
+ * 10  cell     short  row * size + column of the move, the board size for a start
+ * 12  phase    byte   phase after the move, the win length for a start
+ * 13  hash     short  low bits of {@link State#getHash()} after the move; for a start
+ *                     a flags byte, 1 if against the computer, and a reserved byte
+ * 15  kind     byte   {@link #START} or {@link #MOVE}, 0 for a slot not written (yet)
+ * </pre>
+ * Segments are memory-mapped, and a writer reserves its slot with an atomic add, so
+ * appending is a few stores into the page cache with no lock and no system call. A
+ * full segment rolls over to a new one, and the oldest segments beyond the maximum
+ * count are deleted; the segments are forced to disk every
+ * {@value #FORCE_INTERVAL_MILLIS} ms, so a crash of the machine loses about that
+ * much, a crash of the process nothing. A restart appends to the last segment after
+ * its last written record.
+ *
+ * <p>In the stateless mode an older token of a game may be submitted again, so a game
+ * may branch, and the same move may be logged more than once. The hash bits link
+ * every move to the one before it, so {@link #replay(Path, long)} follows a single
+ * line of play: the one to the latest of the deepest moves.
+ *
+ * <p>The log of an application is made and closed by {@link Listener}, which reads
+ * the directory from the {@code ticTacToe.moveLogDir} context parameter, a
+ * {@code ticTacToe-moves} directory in the container's temporary directory if it is
+ * empty, and the number of segments to keep from {@code ticTacToe.moveLogMaxSegments}.
+ * Usage of the replay reader: {@code TicTacToeMoveLog <directory> <gameId>}.
+ */
+public final class TicTacToeMoveLog {
+    static final String DIRECTORY_PARAMETER = "ticTacToe.moveLogDir";
+    static final String MAX_SEGMENTS_PARAMETER = "ticTacToe.moveLogMaxSegments";
+    static final int DEFAULT_MAX_SEGMENT_COUNT = 256;
+    static final int RECORD_SIZE = 16;
+    static final int SEGMENT_SIZE = 1 << 20;
+    static final byte START = 1;
+    static final byte MOVE = 2;
+    private static final int FORCE_INTERVAL_MILLIS = 1000;
+    private static final String SEGMENT_PREFIX = "moves-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int maxSegmentCount;
+    private volatile Segment current;
+    /**
+     * Number of the oldest segment not deleted, guarded by {@code this}.
+     */
+    private int oldestNumber;
+    /**
+     * Segments rolled over since the last force.
+     */
+    private final Queue<Segment> rolled = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService forcer;
+
+    private TicTacToeMoveLog(Path directory, int maxSegmentCount) throws IOException {
+        if (maxSegmentCount < 1) {
+            throw new IllegalArgumentException("At least one segment must be kept [maxSegmentCount="
+                    + maxSegmentCount + "]");
+        }
+        this.directory = directory;
+        this.maxSegmentCount = maxSegmentCount;
+        Files.createDirectories(directory);
+        TreeMap<Integer, Path> segmentPaths = getSegmentPaths(directory);
+        if (segmentPaths.isEmpty()) {
+            oldestNumber = 1;
+            current = openSegment(1);
+        } else {
+            oldestNumber = segmentPaths.firstKey();
+            current = openSegment(segmentPaths.lastKey());
+            deleteOldSegments();
+        }
+        forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ticTacToe-move-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        forcer.scheduleWithFixedDelay(this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return log of the application or {@code null} if {@link Listener} isn't installed.
+     */
+    static TicTacToeMoveLog getInstance(ServletContext servletContext) {
+        return (TicTacToeMoveLog) servletContext.getAttribute(TicTacToeMoveLog.class.getName());
+    }
+
+    private Path getSegmentPath(int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Opens the segment, creating it if it doesn't exist, to append after its last written record.
+     */
+    private Segment openSegment(int number) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(getSegmentPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        Segment segment = new Segment(number, buffer);
+        int end = SEGMENT_SIZE;
+        while (end > 0 && buffer.get(end - RECORD_SIZE + 15) == 0) {
+            end -= RECORD_SIZE;
+        }
+        segment.next.set(end);
+        return segment;
+    }
+
+    /**
+     * Deletes the oldest segments beyond the maximum count, the caller holds the lock or is the constructor.
+     */
+    private void deleteOldSegments() throws IOException {
+        while (current.number - oldestNumber >= maxSegmentCount) {
+            Files.deleteIfExists(getSegmentPath(oldestNumber));
+            oldestNumber += 1;
+        }
+    }
+
+    /**
+     * @return segment numbers to their paths, in order.
+     */
+    private static TreeMap<Integer, Path> getSegmentPaths(Path directory) throws IOException {
+        TreeMap<Integer, Path> paths = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    paths.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), path);
+                } catch (NumberFormatException e) {
+                    // Not a segment.
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Gives the new game a random id, so ids of different runs and nodes don't
+     * collide in practice, and logs its start. Must be called before the game is
+     * shared.
+     */
+    void logStart(State state) {
+        long gameId;
+        do {
+            gameId = ThreadLocalRandom.current().nextLong();
+        } while (gameId == 0);
+        state.setGameId(gameId);
+        append(gameId, 0, state.getSize(), state.getInRowCount(), state.getAgainstComputer() ? 1 : 0, START);
+    }
+
+    /**
+     * @return what the ply adds to the hash bits of the position before it.
+     */
+    private static int getMoveHash(int ply, int cell) {
+        // Crosses make the odd plies.
+        return (short) State.getMoveKey(cell, ply % 2 == 1);
+    }
+
+    /**
+     * Logs the moves that took the game from the version to its current one: the
+     * move on the cell, and the computer's reply if it has made one.
+     *
+     * @param cell row * size + column of the first move.
+     */
+    void logMoves(State state, int fromVersion, int cell) {
+        long gameId = state.getGameId();
+        int version = state.getVersion();
+        if (gameId == 0 || version <= fromVersion) {
+            return;
+        }
+        int hash = (short) state.getHash();
+        if (version > fromVersion + 1) {
+            int reply = state.getLastMove();
+            append(gameId, fromVersion + 1, cell, Phase.RUNNING.ordinal(), hash ^ getMoveHash(version, reply),
+                    MOVE);
+            cell = reply;
+        }
+        append(gameId, version, cell, state.phase.ordinal(), hash, MOVE);
+    }
+
+    /**
+     * @param flags flags of a start or hash bits of a move.
+     */
+    private void append(long gameId, int ply, int cell, int phase, int flags, byte kind) {
+        while (true) {
+            Segment segment = current;
+            int offset = segment.next.getAndAdd(RECORD_SIZE);
+            if (offset <= SEGMENT_SIZE - RECORD_SIZE) {
+                // Absolute puts to a slot of its own don't race with other writers.
+                MappedByteBuffer buffer = segment.buffer;
+                buffer.putLong(offset, gameId);
+                buffer.putShort(offset + 8, (short) ply);
+                buffer.putShort(offset + 10, (short) cell);
+                buffer.put(offset + 12, (byte) phase);
+                buffer.putShort(offset + 13, (short) flags);
+                // A reader that sees the kind sees the rest of the record.
+                VarHandle.releaseFence();
+                buffer.put(offset + 15, kind);
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    private synchronized void roll(Segment full) {
+        if (current == full) {
+            try {
+                current = openSegment(full.number + 1);
+                deleteOldSegments();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't open move log segment [directory=" + directory
+                        + ", number=" + (full.number + 1) + "]", e);
+            }
+            rolled.add(full);
+        }
+    }
+
+    private void force() {
+        for (Segment segment; (segment = rolled.poll()) != null; ) {
+            segment.buffer.force();
+        }
+        current.buffer.force();
+    }
+
+    void close() {
+        forcer.shutdown();
+        force();
+    }
+
+    State replay(long gameId) throws IOException {
+        return replay(directory, gameId);
+    }
+
+    /**
+     * Rebuilds a game by playing its logged moves by the rules of {@link State}. Of
+     * all its lines, the one to the latest logged move of the deepest ply is followed
+     * back to the start by the hash bits, so moves of other branches and repeats are
+     * left out, as are moves of concurrent requests logged out of order.
+     *
+     * @return game as of the end of the line, {@code null} if its start isn't in the log.
+     */
+    static State replay(Path directory, long gameId) throws IOException {
+        State state = null;
+        // Moves of every ply in log order, as cell << 16 | hash bits.
+        List<List<Integer>> moves = new ArrayList<>();
+        for (int ply = 0; ply <= State.MAX_SIZE * State.MAX_SIZE; ply++) {
+            moves.add(new ArrayList<>());
+        }
+        for (Path path : getSegmentPaths(directory).values()) {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            for (int offset = 0; offset <= buffer.limit() - RECORD_SIZE; offset += RECORD_SIZE) {
+                byte kind = buffer.get(offset + 15);
+                if (kind == 0 || buffer.getLong(offset) != gameId) {
+                    continue;
+                }
+                VarHandle.acquireFence();
+                int ply = buffer.getShort(offset + 8);
+                if (kind == START && state == null) {
+                    state = new State(buffer.getShort(offset + 10), buffer.get(offset + 12),
+                            (buffer.get(offset + 13) & 1) != 0);
+                    state.setGameId(gameId);
+                } else if (kind == MOVE && ply > 0 && ply < moves.size()) {
+                    moves.get(ply).add(buffer.getShort(offset + 10) << 16
+                            | (buffer.getShort(offset + 13) & 0xFFFF));
+                }
+            }
+        }
+        if (state == null) {
+            return null;
+        }
+
+        int[] line = findLine(moves, (short) state.getHash());
+        for (int ply = 1; ply < line.length && state.phase == Phase.RUNNING; ply++) {
+            if (!state.play(line[ply])) {
+                break;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @param startHash hash bits of the empty board.
+     * @return cells of the line by ply from 1, of the latest move of the deepest ply
+     * that leads back to the start; empty if there is none.
+     */
+    private static int[] findLine(List<List<Integer>> moves, int startHash) {
+        for (int endPly = moves.size() - 1; endPly > 0; endPly--) {
+            List<Integer> ends = moves.get(endPly);
+            for (int end = ends.size() - 1; end >= 0; end--) {
+                int[] line = new int[endPly + 1];
+                int move = ends.get(end);
+                int ply = endPly;
+                while (true) {
+                    int cell = move >>> 16;
+                    line[ply] = cell;
+                    int parentHash = (short) (move ^ getMoveHash(ply, cell));
+                    ply -= 1;
+                    if (ply == 0) {
+                        if (parentHash == (short) startHash) {
+                            return line;
+                        }
+                        break;
+                    }
+                    int parent = findLatest(moves.get(ply), parentHash);
+                    if (parent < 0) {
+                        break;
+                    }
+                    move = moves.get(ply).get(parent);
+                }
+            }
+        }
+        return new int[1];
+    }
+
+    /**
+     * @return index of the latest move with the hash bits, -1 if there is none.
+     */
+    private static int findLatest(List<Integer> plyMoves, int hash) {
+        for (int i = plyMoves.size() - 1; i >= 0; i--) {
+            if ((short) (int) plyMoves.get(i) == (short) hash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TicTacToeMoveLog <directory> <gameId>");
+            System.exit(1);
+        }
+        State state = replay(Paths.get(args[0]), Long.parseLong(args[1]));
+        if (state == null) {
+            System.err.println("No game " + args[1] + " in " + args[0]);
+            System.exit(1);
+        }
+        System.out.printf("%dx%d, %d in a row, %d moves, %s%n", state.getSize(), state.getSize(),
+                state.getInRowCount(), state.getVersion(), state.getPhase());
+        for (String[] row : state.getCells()) {
+            StringBuilder line = new StringBuilder();
+            for (String cell : row) {
+                line.append(cell.isEmpty() ? "." : cell);
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final MappedByteBuffer buffer;
+        /**
+         * Offset of the next free slot, past the end once the segment is full.
+         */
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Segment(int number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Opens the log when the application starts and closes it when it stops.
+     */
+    public static final class Listener implements ServletContextListener {
+        @Override
+        public void contextInitialized(ServletContextEvent event) {
+            ServletContext servletContext = event.getServletContext();
+            String directoryName = servletContext.getInitParameter(DIRECTORY_PARAMETER);
+            Path directory;
+            if (directoryName == null || directoryName.isEmpty()) {
+                File tempDir = (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+                directory = (tempDir == null ? Paths.get(System.getProperty("java.io.tmpdir")) : tempDir.toPath())
+                        .resolve("ticTacToe-moves");
+            } else {
+                directory = Paths.get(directoryName);
+            }
+            String maxSegments = servletContext.getInitParameter(MAX_SEGMENTS_PARAMETER);
+            int maxSegmentCount = maxSegments == null || maxSegments.isEmpty() ? DEFAULT_MAX_SEGMENT_COUNT
+                    : Integer.parseInt(maxSegments);
+            try {
+                servletContext.setAttribute(TicTacToeMoveLog.class.getName(),
+                        new TicTacToeMoveLog(directory, maxSegmentCount));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't open move log [directory=" + directory + "]", e);
+            }
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent event) {
+            TicTacToeMoveLog moveLog = getInstance(event.getServletContext());
+            if (moveLog != null) {
+                moveLog.close();
+                event.getServletContext().removeAttribute(TicTacToeMoveLog.class.getName());
+            }
+        }
+    }
+}
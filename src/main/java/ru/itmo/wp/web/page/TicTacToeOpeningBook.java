@@ -0,0 +1,130 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Precomputed replies to the first positions of large board variants.
+ *
+ * <p>A book is the classpath resource {@code /opening-books/<size>x<inRowCount>.bin}
+ * written by {@link TicTacToeOpeningBookGenerator}: a header of the magic number,
+ * version, board size, win length and entry count, then entries of a canonical
+ * position hash and the reply in the canonical orientation, sorted by hash.
+ * Books are memory-mapped when the class is loaded and searched in place, so
+ * they cost no heap and are shared by every thread.
+ */
+final class TicTacToeOpeningBook {
+    static final int MAGIC = 0x54544F42;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int ENTRY_SIZE = 10;
+
+    private static final TicTacToeOpeningBook[][] BOOKS = loadBooks();
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private TicTacToeOpeningBook(ByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    static String getResourceName(int size, int inRowCount) {
+        return "/opening-books/" + size + "x" + inRowCount + ".bin";
+    }
+
+    /**
+     * @return cell index of the book reply for the side to move or -1 if the position isn't in the book.
+     */
+    static int findMove(State state) {
+        TicTacToeOpeningBook book = BOOKS[state.getSize()][state.getInRowCount()];
+        if (book == null) {
+            return -1;
+        }
+        int symmetry = state.getCanonicalSymmetry();
+        int move = book.find(state.getHash(symmetry));
+        if (move < 0) {
+            return -1;
+        }
+        move = state.transformBack(symmetry, move);
+        return state.isFree(move) ? move : -1;
+    }
+
+    private int find(long hash) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleHash = buffer.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+            if (middleHash < hash) {
+                low = middle + 1;
+            } else if (middleHash > hash) {
+                high = middle - 1;
+            } else {
+                return buffer.getShort(HEADER_SIZE + middle * ENTRY_SIZE + 8);
+            }
+        }
+        return -1;
+    }
+
+    private static TicTacToeOpeningBook[][] loadBooks() {
+        TicTacToeOpeningBook[][] books = new TicTacToeOpeningBook[State.MAX_SIZE + 1][State.MAX_SIZE + 1];
+        for (int size = State.MIN_SIZE; size <= State.MAX_SIZE; size++) {
+            for (int inRowCount = State.MIN_SIZE; inRowCount <= size; inRowCount++) {
+                String resourceName = getResourceName(size, inRowCount);
+                URL url = TicTacToeOpeningBook.class.getResource(resourceName);
+                if (url != null) {
+                    try {
+                        books[size][inRowCount] = loadBook(url, size, inRowCount);
+                    } catch (IOException | URISyntaxException e) {
+                        throw new IllegalStateException("Can't load opening book [resourceName="
+                                + resourceName + "]", e);
+                    }
+                }
+            }
+        }
+        return books;
+    }
+
+    private static TicTacToeOpeningBook loadBook(URL url, int size, int inRowCount)
+            throws IOException, URISyntaxException {
+        Path path;
+        if ("file".equals(url.getProtocol())) {
+            path = Paths.get(url.toURI());
+        } else {
+            // Can't map a jar entry, so the book is mapped from a copy instead.
+            path = Files.createTempFile("opening-book", ".bin");
+            path.toFile().deleteOnExit();
+            try (InputStream inputStream = url.openStream()) {
+                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION
+                || buffer.get(5) != size || buffer.get(6) != inRowCount) {
+            throw new IOException("Bad opening book header [url=" + url + "]");
+        }
+        int count = buffer.getInt(8);
+        if (buffer.limit() != HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            throw new IOException("Bad opening book length [url=" + url + "]");
+        }
+        return new TicTacToeOpeningBook(buffer, count);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.Phase;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline generator of {@link TicTacToeOpeningBook} files.
+ *
+ * <p>Usage: {@code TicTacToeOpeningBookGenerator <size> <inRowCount> <plies> <millisPerPosition> <file>}.
+ * Starting from the empty board, it searches every position up to {@code plies} moves
+ * deep, one representative per rotation and reflection class, and expands each one by
+ * all replies the search itself would consider (every cell on the empty board).
+ * The books shipped with the application live in {@code src/main/resources/opening-books}.
+ */
+public final class TicTacToeOpeningBookGenerator {
+    private TicTacToeOpeningBookGenerator() {
+        // No operations.
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("Usage: TicTacToeOpeningBookGenerator <size> <inRowCount> <plies>"
+                    + " <millisPerPosition> <file>");
+            System.exit(1);
+        }
+        int size = Integer.parseInt(args[0]);
+        int inRowCount = Integer.parseInt(args[1]);
+        int plies = Integer.parseInt(args[2]);
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[3]));
+        Path file = Paths.get(args[4]);
+
+        SortedMap<Long, Short> entries = new TreeMap<>();
+        List<State> positions = Collections.singletonList(new State(size, inRowCount, false));
+        for (int ply = 0; ply < plies && !positions.isEmpty(); ply++) {
+            long startTime = System.nanoTime();
+            List<State> searched = positions;
+            int[] moves = searched.parallelStream()
+                    .mapToInt(state -> TicTacToeAi.search(state, budgetNanos, Long.MAX_VALUE))
+                    .toArray();
+            for (int i = 0; i < searched.size(); i++) {
+                State state = searched.get(i);
+                int symmetry = state.getCanonicalSymmetry();
+                entries.put(state.getHash(symmetry), (short) state.transform(symmetry, moves[i]));
+            }
+            System.out.printf("Ply %d: %d positions in %d ms%n", ply, searched.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+            positions = ply + 1 < plies ? expand(searched) : Collections.emptyList();
+        }
+
+        write(file, size, inRowCount, entries);
+        System.out.printf("Wrote %d positions to %s%n", entries.size(), file);
+    }
+
+    private static List<State> expand(List<State> positions) {
+        List<State> children = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (State state : positions) {
+            int cellCount = state.getSize() * state.getSize();
+            int[] moves = new int[cellCount];
+            int count;
+            if (state.getFreeCells() == cellCount) {
+                for (int i = 0; i < cellCount; i++) {
+                    moves[i] = i;
+                }
+                count = cellCount;
+            } else {
+                count = TicTacToeAi.generateMoves(state, moves, new int[cellCount], new int[cellCount], 1, -1);
+            }
+
+            for (int i = 0; i < count; i++) {
+                State child = state.copy();
+                child.play(moves[i]);
+                if (child.phase == Phase.RUNNING
+                        && seen.add(child.getHash(child.getCanonicalSymmetry()))) {
+                    children.add(child);
+                }
+            }
+        }
+        return children;
+    }
+
+    private static void write(Path file, int size, int inRowCount, SortedMap<Long, Short> entries)
+            throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(TicTacToeOpeningBook.MAGIC);
+            out.writeByte(TicTacToeOpeningBook.VERSION);
+            out.writeByte(size);
+            out.writeByte(inRowCount);
+            out.writeByte(0);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Short> entry : entries.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeShort(entry.getValue());
+            }
+        }
+    }
+}
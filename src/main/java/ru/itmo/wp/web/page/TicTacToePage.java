@@ -4,45 +4,322 @@ import ru.itmo.wp.web.exception.RedirectException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.io.*;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.UnaryOperator;
 
 @SuppressWarnings("unused")
 public class TicTacToePage {
-    private enum Phase {
+    /**
+     * Context parameter that keeps games in signed tokens instead of the session.
+     */
+    static final String STATELESS_PARAMETER = "ticTacToe.stateless";
+
+    enum Phase {
         RUNNING, DRAW, WON_X, WON_O
     }
 
-    public static class State {
-        private static final int SIZE = 3;
+    public static class State implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final int MIN_SIZE = 3;
+        static final int MAX_SIZE = 19;
+        static final int DEFAULT_SIZE = 3;
+        private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        static final int SYMMETRY_COUNT = 8;
+        private static final long[] ZOBRIST_KEYS = newZobristKeys();
+        private static final int[][][] SYMMETRIES = newSymmetries(false);
+        private static final int[][][] INVERSE_SYMMETRIES = newSymmetries(true);
+        private static final byte ENCODING_VERSION = 1;
+        private static final int ENCODING_HEADER_SIZE = 4;
+        private static final int ENCODING_GAME_ID_FLAG = 16;
+        private static final int ENCODING_FIRST_MOVE_FLAG = 32;
 
-        private int freeCells = SIZE * SIZE;
+        private final int size;
+        private final int inRowCount;
+        private int freeCells;
 
         Phase phase = Phase.RUNNING;
         private boolean crossesMove = true;
-        private final String[][] cells;
+        private final long[] crosses;
+        private final long[] noughts;
+        private int lastMove = -1;
+        private final long[] hashes = new long[SYMMETRY_COUNT];
+        private final boolean againstComputer;
+        /**
+         * Id of the game in the {@link TicTacToeMoveLog}, 0 for a game that isn't logged.
+         */
+        private long gameId;
+        /**
+         * Cell of the first move of the game, -1 before it is made.
+         */
+        private int firstMove = -1;
 
         public State() {
-            cells = new String[SIZE][SIZE];
+            this(DEFAULT_SIZE, DEFAULT_SIZE, false);
+        }
+
+        public State(int size, int inRowCount, boolean againstComputer) {
+            if (size < MIN_SIZE || size > MAX_SIZE || inRowCount < MIN_SIZE || inRowCount > size) {
+                throw new IllegalArgumentException("Unsupported board [size=" + size
+                        + ", inRowCount=" + inRowCount + "]");
+            }
+            this.size = size;
+            this.inRowCount = inRowCount;
+            freeCells = size * size;
+            crosses = new long[(size * size + 63) / 64];
+            noughts = new long[crosses.length];
+            this.againstComputer = againstComputer;
+            Arrays.fill(hashes, ZOBRIST_KEYS[2 * MAX_SIZE * MAX_SIZE
+                    + (size - MIN_SIZE) * (MAX_SIZE + 1) + inRowCount]);
+        }
+
+        private State(State other) {
+            size = other.size;
+            inRowCount = other.inRowCount;
+            freeCells = other.freeCells;
+            phase = other.phase;
+            crossesMove = other.crossesMove;
+            crosses = other.crosses.clone();
+            noughts = other.noughts.clone();
+            lastMove = other.lastMove;
+            System.arraycopy(other.hashes, 0, hashes, 0, SYMMETRY_COUNT);
+            againstComputer = other.againstComputer;
+            gameId = other.gameId;
+            firstMove = other.firstMove;
+        }
+
+        /**
+         * Random keys of every (cell, side) pair followed by keys of board variants, so
+         * positions of different variants never share a hash. The seed is fixed to keep
+         * hashes stable between runs.
+         */
+        private static long[] newZobristKeys() {
+            SplittableRandom random = new SplittableRandom(0x5EED_7AC7_0E5L);
+            long[] keys = new long[2 * MAX_SIZE * MAX_SIZE + (MAX_SIZE - MIN_SIZE + 1) * (MAX_SIZE + 1)];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextLong();
+            }
+            return keys;
+        }
+
+        /**
+         * Cell permutations of the eight rotations and reflections of every board size:
+         * symmetry {@code s} mirrors the board if {@code s >= 4} and then turns it
+         * {@code s % 4} times by 90 degrees.
+         */
+        private static int[][][] newSymmetries(boolean inverse) {
+            int[][][] symmetries = new int[MAX_SIZE + 1][][];
+            for (int size = MIN_SIZE; size <= MAX_SIZE; size++) {
+                symmetries[size] = new int[SYMMETRY_COUNT][size * size];
+                for (int symmetry = 0; symmetry < SYMMETRY_COUNT; symmetry++) {
+                    for (int row = 0; row < size; row++) {
+                        for (int column = 0; column < size; column++) {
+                            int r = row;
+                            int c = symmetry >= 4 ? size - 1 - column : column;
+                            for (int i = 0; i < symmetry % 4; i++) {
+                                int t = r;
+                                r = c;
+                                c = size - 1 - t;
+                            }
+                            if (inverse) {
+                                symmetries[size][symmetry][r * size + c] = row * size + column;
+                            } else {
+                                symmetries[size][symmetry][row * size + column] = r * size + c;
+                            }
+                        }
+                    }
+                }
+            }
+            return symmetries;
+        }
+
+        State copy() {
+            return new State(this);
+        }
+
+        byte[] toBytes() {
+            return toBytes(true);
+        }
+
+        /**
+         * Compact binary form of the game: a version byte, the board size, the win
+         * length and a flags byte (side to move, opponent, phase, which of the game
+         * fields follow), then the game id of a logged game and the first move as a
+         * short, then the board.
+         * A 3x3 board is its base-3 code in two bytes; larger boards are a bitset of
+         * occupied cells followed by a bitset of which of those hold crosses.
+         * Everything else is derived again by {@link #fromBytes(byte[])}.
+         *
+         * @param withGame false for the position alone, without the game fields, the same in every game.
+         */
+        byte[] toBytes(boolean withGame) {
+            int cellCount = size * size;
+            int stoneCount = cellCount - freeCells;
+            int flags = (crossesMove ? 1 : 0) | (againstComputer ? 2 : 0) | (phase.ordinal() << 2);
+            if (withGame && gameId != 0) {
+                flags |= ENCODING_GAME_ID_FLAG;
+            }
+            if (withGame && firstMove >= 0) {
+                flags |= ENCODING_FIRST_MOVE_FLAG;
+            }
+            int boardOffset = getBoardOffset(flags);
+            byte[] bytes = new byte[boardOffset
+                    + (size == 3 ? 2 : (cellCount + 7) / 8 + (stoneCount + 7) / 8)];
+            bytes[0] = ENCODING_VERSION;
+            bytes[1] = (byte) size;
+            bytes[2] = (byte) inRowCount;
+            bytes[3] = (byte) flags;
+            int offset = ENCODING_HEADER_SIZE;
+            if ((flags & ENCODING_GAME_ID_FLAG) != 0) {
+                for (int i = Long.BYTES - 1; i >= 0; i--) {
+                    bytes[offset++] = (byte) (gameId >>> (8 * i));
+                }
+            }
+            if ((flags & ENCODING_FIRST_MOVE_FLAG) != 0) {
+                bytes[offset++] = (byte) (firstMove >>> 8);
+                bytes[offset] = (byte) firstMove;
+            }
 
-            for (int x = 0; x < SIZE; x++) {
-                Arrays.fill(cells[x], "");
+            if (size == 3) {
+                int code = 0;
+                for (int index = cellCount - 1; index >= 0; index--) {
+                    code = code * 3 + (getStone(index) + 3) % 3;
+                }
+                bytes[boardOffset] = (byte) (code >>> 8);
+                bytes[boardOffset + 1] = (byte) code;
+            } else {
+                int colorOffset = 8 * (boardOffset + (cellCount + 7) / 8);
+                int stone = 0;
+                for (int index = 0; index < cellCount; index++) {
+                    if (!isFree(index)) {
+                        setBit(bytes, 8 * boardOffset + index);
+                        if (isSet(crosses, index)) {
+                            setBit(bytes, colorOffset + stone);
+                        }
+                        stone += 1;
+                    }
+                }
             }
+            return bytes;
+        }
+
+        private static int getBoardOffset(int flags) {
+            return ENCODING_HEADER_SIZE + ((flags & ENCODING_GAME_ID_FLAG) != 0 ? Long.BYTES : 0)
+                    + ((flags & ENCODING_FIRST_MOVE_FLAG) != 0 ? Short.BYTES : 0);
         }
 
+        private static void setBit(byte[] bytes, int bit) {
+            bytes[bit >>> 3] |= (byte) (1 << (bit & 7));
+        }
+
+        private static boolean getBit(byte[] bytes, int bit) {
+            return (bytes[bit >>> 3] & (1 << (bit & 7))) != 0;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the bytes aren't made by {@link #toBytes()}.
+         */
+        static State fromBytes(byte[] bytes) {
+            if (bytes.length < ENCODING_HEADER_SIZE || bytes[0] != ENCODING_VERSION
+                    || (bytes[3] & ~(ENCODING_GAME_ID_FLAG | ENCODING_FIRST_MOVE_FLAG | 15)) != 0) {
+                throw new IllegalArgumentException("Bad game state encoding");
+            }
+            int boardOffset = getBoardOffset(bytes[3]);
+            if (bytes.length < boardOffset) {
+                throw new IllegalArgumentException("Bad game state encoding");
+            }
+            State state = new State(bytes[1], bytes[2], (bytes[3] & 2) != 0);
+            int cellCount = state.size * state.size;
+            int offset = ENCODING_HEADER_SIZE;
+            if ((bytes[3] & ENCODING_GAME_ID_FLAG) != 0) {
+                for (int i = 0; i < Long.BYTES; i++) {
+                    state.gameId = (state.gameId << 8) | (bytes[offset++] & 0xFF);
+                }
+            }
+            int firstMove = -1;
+            if ((bytes[3] & ENCODING_FIRST_MOVE_FLAG) != 0) {
+                firstMove = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+            }
+
+            if (state.size == 3) {
+                if (bytes.length != boardOffset + 2) {
+                    throw new IllegalArgumentException("Bad game state encoding");
+                }
+                int code = ((bytes[boardOffset] & 0xFF) << 8) | (bytes[boardOffset + 1] & 0xFF);
+                for (int index = 0; index < cellCount; index++) {
+                    if (code % 3 != 0) {
+                        state.changeCell(index / 3, index % 3, code % 3 == 1 ? "X" : "O");
+                    }
+                    code /= 3;
+                }
+                if (code != 0) {
+                    throw new IllegalArgumentException("Bad game state encoding");
+                }
+            } else {
+                int colorOffset = 8 * (boardOffset + (cellCount + 7) / 8);
+                if (colorOffset > 8 * bytes.length) {
+                    throw new IllegalArgumentException("Bad game state encoding");
+                }
+                int stone = 0;
+                for (int index = 0; index < cellCount; index++) {
+                    if (getBit(bytes, 8 * boardOffset + index)) {
+                        if (colorOffset + stone >= 8 * bytes.length) {
+                            throw new IllegalArgumentException("Bad game state encoding");
+                        }
+                        boolean cross = getBit(bytes, colorOffset + stone);
+                        state.changeCell(index / state.size, index % state.size, cross ? "X" : "O");
+                        stone += 1;
+                    }
+                }
+                if (bytes.length != colorOffset / 8 + (stone + 7) / 8) {
+                    throw new IllegalArgumentException("Bad game state encoding");
+                }
+            }
+
+            state.lastMove = -1;
+            state.firstMove = firstMove;
+            state.crossesMove = (bytes[3] & 1) != 0;
+            state.phase = Phase.values()[(bytes[3] >>> 2) & 3];
+            return state;
+        }
+
+        private Object writeReplace() {
+            return new SerializedState(toBytes());
+        }
+
+        private void readObject(ObjectInputStream in) throws InvalidObjectException {
+            throw new InvalidObjectException("State is serialized through SerializedState");
+        }
+
+        private static boolean isSet(long[] bits, int index) {
+            return (bits[index >>> 6] & (1L << index)) != 0;
+        }
+
+        private boolean isInside(int row, int column) {
+            return row >= 0 && row < size && column >= 0 && column < size;
+        }
+
+        private String getCell(int row, int column) {
+            int index = row * size + column;
+            return isSet(crosses, index) ? "X" : (isSet(noughts, index) ? "O" : "");
+        }
+
+        /**
+         * Reference implementation of {@link #checkGameState()} that scans every line
+         * of the board, kept to check the incremental version against.
+         */
         private boolean checkBoard(String check, UnaryOperator<Integer> getRow, UnaryOperator<Integer> getCol) {
             int count = 0;
-            for (int i = 0; i < SIZE; i++) {
+            for (int i = 0; i < size; i++) {
                 int row = getRow.apply(i);
                 int column = getCol.apply(i);
-                if (row >= SIZE || column >= SIZE) {
-                    break;
-                }
-                if (check.equals(cells[row][column])) {
+                if (isInside(row, column) && check.equals(getCell(row, column))) {
                     count += 1;
-                    int inRowCount = 3;
                     if (count == inRowCount) {
                         return true;
                     }
@@ -53,30 +330,67 @@ public class TicTacToePage {
             return false;
         }
 
-        private Phase checkGameState() {
-            String check = getTurnCode();
+        /**
+         * @return phase of the board after the last move, found by scanning every line
+         * for one of the side that made it; {@code TicTacToeEngineCheck} compares it with
+         * the incremental {@link #phase}.
+         */
+        Phase checkGameStateReference() {
+            // The turn has passed since the last move.
+            boolean crossesMoved = !crossesMove;
+            String check = crossesMoved ? "X" : "O";
             boolean won = false;
             // checking rows
-            for (int row = 0; row < SIZE; row++) {
+            for (int row = 0; row < size; row++) {
                 int finalRow = row;
                 won = won || checkBoard(check, (x) -> finalRow, (x) -> x);
             }
             // checking columns
-            for (int column = 0; column < SIZE; column++) {
+            for (int column = 0; column < size; column++) {
                 int finalColumn = column;
                 won = won || checkBoard(check, (x) -> x, (x) -> finalColumn);
             }
             // diagnoals
-            for (int offset = 0; offset < SIZE; offset++) {
+            for (int offset = 1 - size; offset < size; offset++) {
                 int finalOffset = offset;
                 won = won || checkBoard(check, (x) -> finalOffset + x, (x) -> x);
             }
             // antidiagonals
-            for (int offset = 0; offset < SIZE; offset++) {
+            for (int offset = 1 - size; offset < size; offset++) {
                 int finalOffset = offset;
-                won = won || checkBoard(check, (x) -> finalOffset + SIZE - 1 - x, (x) -> x);
+                won = won || checkBoard(check, (x) -> finalOffset + size - 1 - x, (x) -> x);
+            }
+            return won ? (crossesMoved ? Phase.WON_X : Phase.WON_O) : (freeCells == 0 ? Phase.DRAW : Phase.RUNNING);
+        }
+
+        /**
+         * Only a line through the last move can have been completed by it, so it is
+         * enough to count stones in the four directions through that cell.
+         */
+        private Phase checkGameState() {
+            if (lastMove >= 0) {
+                long[] check = crossesMove ? crosses : noughts;
+                for (int[] direction : DIRECTIONS) {
+                    int count = 1 + countInDirection(check, direction[0], direction[1])
+                            + countInDirection(check, -direction[0], -direction[1]);
+                    if (count >= inRowCount) {
+                        return crossesMove ? Phase.WON_X : Phase.WON_O;
+                    }
+                }
             }
-            return won ? (crossesMove ? Phase.WON_X : Phase.WON_O) : (freeCells == 0 ? Phase.DRAW : Phase.RUNNING);
+            return freeCells == 0 ? Phase.DRAW : Phase.RUNNING;
+        }
+
+        private int countInDirection(long[] check, int rowStep, int columnStep) {
+            int count = 0;
+            int row = lastMove / size + rowStep;
+            int column = lastMove % size + columnStep;
+            while (count < inRowCount - 1 && isInside(row, column) && isSet(check, row * size + column)) {
+                count += 1;
+                row += rowStep;
+                column += columnStep;
+            }
+            return count;
         }
 
         private void updateGameState() {
@@ -84,11 +398,122 @@ public class TicTacToePage {
             crossesMove = !crossesMove;
         }
 
-        private void changeCell(int row, int col, String value) {
-            if (cells[row][col].isEmpty()) {
-                cells[row][col] = value;
-                freeCells -= 1;
+        private boolean changeCell(int row, int col, String value) {
+            int index = row * size + col;
+            if (!isInside(row, col) || isSet(crosses, index) || isSet(noughts, index)) {
+                return false;
+            }
+            boolean cross = "X".equals(value);
+            long[] bits = cross ? crosses : noughts;
+            bits[index >>> 6] |= 1L << index;
+            if (freeCells == size * size) {
+                firstMove = index;
+            }
+            freeCells -= 1;
+            lastMove = index;
+            updateHashes(index, cross);
+            return true;
+        }
+
+        /**
+         * Puts the stone of the side to move on the cell and passes the turn.
+         */
+        boolean play(int index) {
+            if (!changeCell(index / size, index % size, getTurnCode())) {
+                return false;
+            }
+            updateGameState();
+            return true;
+        }
+
+        /**
+         * Takes back {@link #play(int)} of a move made from a running position.
+         */
+        void undo(int index, int previousLastMove) {
+            crossesMove = !crossesMove;
+            long[] bits = crossesMove ? crosses : noughts;
+            bits[index >>> 6] &= ~(1L << index);
+            freeCells += 1;
+            if (freeCells == size * size) {
+                firstMove = -1;
+            }
+            lastMove = previousLastMove;
+            updateHashes(index, crossesMove);
+            phase = Phase.RUNNING;
+        }
+
+        private void updateHashes(int index, boolean cross) {
+            int[][] symmetries = SYMMETRIES[size];
+            for (int symmetry = 0; symmetry < SYMMETRY_COUNT; symmetry++) {
+                hashes[symmetry] ^= ZOBRIST_KEYS[2 * symmetries[symmetry][index] + (cross ? 0 : 1)];
+            }
+        }
+
+        boolean isFree(int index) {
+            return !isSet(crosses, index) && !isSet(noughts, index);
+        }
+
+        /**
+         * @return 1 for a cross, -1 for a nought and 0 for an empty cell.
+         */
+        int getStone(int index) {
+            return isSet(crosses, index) ? 1 : (isSet(noughts, index) ? -1 : 0);
+        }
+
+        int getLastMove() {
+            return lastMove;
+        }
+
+        int getFirstMove() {
+            return firstMove;
+        }
+
+        int getFreeCells() {
+            return freeCells;
+        }
+
+        long getHash() {
+            return hashes[0];
+        }
+
+        /**
+         * @return what a stone of the side on the cell adds to {@link #getHash()} by xor.
+         */
+        static long getMoveKey(int index, boolean cross) {
+            return ZOBRIST_KEYS[2 * index + (cross ? 0 : 1)];
+        }
+
+        /**
+         * @return symmetry of the board whose hash is the least, positions equal up to
+         * rotation and reflection have the same canonical hash.
+         */
+        int getCanonicalSymmetry() {
+            int canonical = 0;
+            for (int symmetry = 1; symmetry < SYMMETRY_COUNT; symmetry++) {
+                if (hashes[symmetry] < hashes[canonical]) {
+                    canonical = symmetry;
+                }
             }
+            return canonical;
+        }
+
+        long getHash(int symmetry) {
+            return hashes[symmetry];
+        }
+
+        /**
+         * @return index of the cell in the board transformed by the symmetry.
+         */
+        int transform(int symmetry, int index) {
+            return SYMMETRIES[size][symmetry][index];
+        }
+
+        int transformBack(int symmetry, int index) {
+            return INVERSE_SYMMETRIES[size][symmetry][index];
+        }
+
+        boolean isComputerMove() {
+            return againstComputer && !crossesMove && phase == Phase.RUNNING;
         }
 
         public String getPhase() {
@@ -96,10 +521,35 @@ public class TicTacToePage {
         }
 
         public int getSize() {
-            return SIZE;
+            return size;
+        }
+
+        public int getInRowCount() {
+            return inRowCount;
+        }
+
+        public boolean getAgainstComputer() {
+            return againstComputer;
+        }
+
+        long getGameId() {
+            return gameId;
+        }
+
+        void setGameId(long gameId) {
+            this.gameId = gameId;
         }
 
+        /**
+         * @return snapshot of the board for rendering, changes to it don't affect the game.
+         */
         public String[][] getCells() {
+            String[][] cells = new String[size][size];
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    cells[row][column] = getCell(row, column);
+                }
+            }
             return cells;
         }
 
@@ -107,26 +557,224 @@ public class TicTacToePage {
             return crossesMove;
         }
 
+        /**
+         * Moves only ever add stones, so the number of stones orders the snapshots of a
+         * game and tells a form of an earlier position from one of the current position.
+         *
+         * @return number of moves played.
+         */
+        public int getVersion() {
+            return size * size - freeCells;
+        }
+
         private String getTurnCode() {
             return crossesMove ? "X" : "O";
         }
     }
 
-    private void redirect(HttpServletRequest request) {
-        State state = (State) request.getSession().getAttribute("state");
-        if (state != null) {
-            throw new RedirectException("TicTacToe");
+    /**
+     * Serialized form of {@link State}, so sessions holding a game are passivated
+     * and replicated as a few bytes of {@link State#toBytes()}.
+     */
+    static final class SerializedState implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] bytes;
+
+        public SerializedState() {
+            // No operations.
+        }
+
+        private SerializedState(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            bytes = new byte[in.readUnsignedByte()];
+            in.readFully(bytes);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return State.fromBytes(bytes);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
+
+    private static final String STATE_ATTRIBUTE = "state";
+
+    private static boolean isStateless(HttpServletRequest request) {
+        return Boolean.parseBoolean(request.getServletContext().getInitParameter(STATELESS_PARAMETER));
+    }
+
+    /**
+     * @return game of the session, or of the signed token in the stateless mode, {@code null} if there is none.
+     */
+    private State loadState(HttpServletRequest request) {
+        if (isStateless(request)) {
+            return TicTacToeStateToken.getInstance(request.getServletContext())
+                    .decode(request.getParameter("state"));
+        }
+        AtomicReference<State> reference = getStateReference(request, false);
+        return reference == null ? null : reference.get();
+    }
+
+    private void saveState(HttpServletRequest request, State state) {
+        if (!isStateless(request)) {
+            AtomicReference<State> reference = getStateReference(request, true);
+            reference.set(state);
+            request.getSession().setAttribute(STATE_ATTRIBUTE, reference);
         }
     }
 
+    /**
+     * The session holds its game in an {@link AtomicReference} to a state that is never
+     * changed once it is there: a move plays on a copy and puts it in with
+     * compare-and-set, so concurrent requests of the session never see or make a
+     * half-played move and never wait for each other. The reference is set in the
+     * session again after every change, as containers persist or replicate a session
+     * attribute when it is set, not when the object it holds changes.
+     *
+     * @return reference to the game of the session, {@code null} if there is none and {@code create} is false.
+     */
+    @SuppressWarnings("unchecked")
+    private static AtomicReference<State> getStateReference(HttpServletRequest request, boolean create) {
+        HttpSession session = request.getSession(create);
+        if (session == null) {
+            return null;
+        }
+        AtomicReference<State> reference = (AtomicReference<State>) session.getAttribute(STATE_ATTRIBUTE);
+        if (reference == null && create) {
+            // Only the first game of a session gets here.
+            synchronized (session) {
+                reference = (AtomicReference<State>) session.getAttribute(STATE_ATTRIBUTE);
+                if (reference == null) {
+                    reference = new AtomicReference<>();
+                    session.setAttribute(STATE_ATTRIBUTE, reference);
+                }
+            }
+        }
+        return reference;
+    }
+
+    private void redirect(HttpServletRequest request, State state) {
+        if (isStateless(request)) {
+            throw new RedirectException("TicTacToe?state="
+                    + TicTacToeStateToken.getInstance(request.getServletContext()).encode(state));
+        }
+        throw new RedirectException("TicTacToe");
+    }
+
+    /**
+     * @return new game, logged if the application has a {@link TicTacToeMoveLog}.
+     */
+    private static State newState(HttpServletRequest request, int size, int inRowCount, boolean againstComputer) {
+        State state = new State(size, inRowCount, againstComputer);
+        TicTacToeMoveLog moveLog = TicTacToeMoveLog.getInstance(request.getServletContext());
+        if (moveLog != null) {
+            moveLog.logStart(state);
+        }
+        return state;
+    }
+
     private void onMove(HttpServletRequest request, Map<String, Object> view) {
-        HttpSession session = request.getSession();
-        State state = (State) session.getAttribute("state");
+        State state = loadState(request);
+        if (state == null) {
+            state = newState(request, State.DEFAULT_SIZE, State.DEFAULT_SIZE, false);
+            saveState(request, state);
+            redirect(request, state);
+        }
 
         if (state.phase != Phase.RUNNING) {
-            redirect(request);
+            redirect(request, state);
+        }
+
+        int[] cell = getCellParameter(request);
+        if (cell != null) {
+            int version = getIntParameter(request, "version", -1);
+            TicTacToeMoveLog moveLog = TicTacToeMoveLog.getInstance(request.getServletContext());
+            if (isStateless(request)) {
+                int fromVersion = state.getVersion();
+                if ((version < 0 || version == fromVersion) && applyMove(state, cell[0], cell[1])) {
+                    recordMoves(moveLog, state, fromVersion, cell[0] * state.getSize() + cell[1]);
+                }
+            } else {
+                state = applyMove(getStateReference(request, true), version, cell[0], cell[1], moveLog,
+                        request.getSession());
+            }
         }
+        redirect(request, state);
+    }
 
+    /**
+     * Plays the move on the game of the reference unless the game has moved on from
+     * the expected version: of two submits of the same form, the first one wins and
+     * the other one is dropped, whichever order they come in.
+     *
+     * @param expectedVersion version the move was made at, negative not to check.
+     * @param moveLog log to append the move to once it is played, {@code null} not to log it.
+     * @param session session to set the reference in again once the move is played, {@code null} if it has none.
+     * @return game after the move, or as it is if the move was not played.
+     */
+    static State applyMove(AtomicReference<State> reference, int expectedVersion, int row, int column,
+                           TicTacToeMoveLog moveLog, HttpSession session) {
+        while (true) {
+            State current = reference.get();
+            if (current == null || (expectedVersion >= 0 && current.getVersion() != expectedVersion)) {
+                return current;
+            }
+            State next = current.copy();
+            if (!applyPlayerMove(next, row, column)) {
+                return current;
+            }
+            if (next.isComputerMove()) {
+                // The reply takes a search of up to 300 ms, wasted if the game has moved on meanwhile.
+                if (reference.get() != current) {
+                    continue;
+                }
+                next.play(TicTacToeAi.chooseMove(next));
+            }
+            if (reference.compareAndSet(current, next)) {
+                if (session != null) {
+                    session.setAttribute(STATE_ATTRIBUTE, reference);
+                }
+                recordMoves(moveLog, next, current.getVersion(), row * next.getSize() + column);
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Records moves that have just been played on a game: logs them, and counts the
+     * result in {@link TicTacToeStatistics} if they have ended it. Called where a
+     * move is known to stay, not in {@link State}, whose moves are also the
+     * computer's search.
+     *
+     * @param moveLog log of the application, {@code null} not to log.
+     * @param cell row * size + column of the first move.
+     */
+    static void recordMoves(TicTacToeMoveLog moveLog, State state, int fromVersion, int cell) {
+        if (moveLog != null) {
+            moveLog.logMoves(state, fromVersion, cell);
+        }
+        if (state.phase != Phase.RUNNING && state.getVersion() > fromVersion) {
+            TicTacToeStatistics.SHARED.recordResult(state);
+        }
+    }
+
+    /**
+     * @return row and column of the {@code cell_<row>_<column>} parameter, {@code null} if there is no valid one.
+     */
+    static int[] getCellParameter(HttpServletRequest request) {
         String cell = "";
         for (Enumeration<String> e = request.getParameterNames(); e.hasMoreElements(); ) {
             cell = e.nextElement();
@@ -136,41 +784,74 @@ public class TicTacToePage {
         }
 
         try {
-            int row = Integer.parseInt(String.valueOf(cell.charAt(5)));
-            int column = Integer.parseInt(String.valueOf(cell.charAt(6)));
-            if (row < 0 || row > State.SIZE || column < 0 || column > State.SIZE) {
-                throw new IndexOutOfBoundsException("Badly formatted cell input");
-            }
-            boolean x_moves = state.crossesMove;
+            int separator = cell.indexOf('_', "cell_".length());
+            return new int[]{Integer.parseInt(cell.substring("cell_".length(), separator)),
+                    Integer.parseInt(cell.substring(separator + 1))};
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
 
-            state.changeCell(row, column, state.getTurnCode());
-            state.updateGameState();
+    /**
+     * Plays the move of the side to move and then the computer's reply if it is its turn.
+     *
+     * @return whether the move was legal.
+     */
+    static boolean applyMove(State state, int row, int column) {
+        if (!applyPlayerMove(state, row, column)) {
+            return false;
+        }
+        if (state.isComputerMove()) {
+            state.play(TicTacToeAi.chooseMove(state));
+        }
+        return true;
+    }
 
-            view.put("state", state);
-            session.setAttribute("state", state);
-            redirect(request);
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            redirect(request);
+    /**
+     * Plays the move of the side to move, without a reply.
+     *
+     * @return whether the move was legal.
+     */
+    private static boolean applyPlayerMove(State state, int row, int column) {
+        if (state.phase != Phase.RUNNING || !state.changeCell(row, column, state.getTurnCode())) {
+            return false;
+        }
+        state.updateGameState();
+        return true;
+    }
+
+    static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+        try {
+            return Integer.parseInt(request.getParameter(name));
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
-        redirect(request);
     }
 
     private void newGame(HttpServletRequest request, Map<String, Object> view) {
-        State startState = new State();
-        view.put("state", startState);
-        request.getSession().setAttribute("state", startState);
-        redirect(request);
+        int size = Math.max(State.MIN_SIZE, Math.min(State.MAX_SIZE,
+                getIntParameter(request, "size", State.DEFAULT_SIZE)));
+        int inRowCount = Math.max(State.MIN_SIZE, Math.min(size,
+                getIntParameter(request, "inRowCount", size)));
+        boolean againstComputer = "computer".equals(request.getParameter("opponent"));
+        State startState = newState(request, size, inRowCount, againstComputer);
+        saveState(request, startState);
+        redirect(request, startState);
     }
 
     private void action(HttpServletRequest request, Map<String, Object> view) {
-        HttpSession session = request.getSession();
-        State state = (State) session.getAttribute("state");
+        State state = loadState(request);
         if (state == null) {
-            State start_state = new State();
-            view.put("state", start_state);
-            session.setAttribute("state", start_state);
+            state = newState(request, State.DEFAULT_SIZE, State.DEFAULT_SIZE, false);
+            saveState(request, state);
+        }
+        view.put("state", state);
+        if (isStateless(request)) {
+            // The token is of this visitor's game alone, so the page can't be shared.
+            view.put("stateToken", TicTacToeStateToken.getInstance(request.getServletContext()).encode(state));
         } else {
-            view.put("state", state);
+            // The page is a function of the position, so FrontServlet may reuse an earlier rendering.
+            view.put("renderCacheKey", Base64.getEncoder().encodeToString(state.toBytes(false)));
         }
     }
 }
@@ -0,0 +1,111 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of positions searched by {@link TicTacToeAi}, shared by all games and
+ * keyed by the canonical hash of the board so positions equal up to rotation and
+ * reflection share an entry.
+ *
+ * <p>The cache is split into segments, each a small LRU map under its own lock, so
+ * request threads rarely contend. Entries are immutable and safe to hand out to
+ * any thread. A lookup costs more than the incremental win check of a move (see
+ * {@code GameEngineBenchmark}), so only searches, which cost far more, consult it.
+ *
+ * <p>Hits, misses and evictions are counted in {@link LongAdder}s; those of the
+ * shared cache are exported by {@link Metrics} once the class is loaded.
+ */
+final class TicTacToePositionCache {
+    static final TicTacToePositionCache SHARED = new TicTacToePositionCache(64, 1024);
+
+    static {
+        Metrics metrics = Metrics.getInstance();
+        metrics.registerCounter("wp_tictactoe_position_cache_hits_total",
+                "Computer searches answered by the position cache.", SHARED.hits);
+        metrics.registerCounter("wp_tictactoe_position_cache_misses_total",
+                "Computer searches not answered by the position cache.", SHARED.misses);
+        metrics.registerCounter("wp_tictactoe_position_cache_evictions_total",
+                "Positions dropped from the full position cache.", SHARED.evictions);
+    }
+
+    private final Segment[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param segmentCount power of two.
+     */
+    TicTacToePositionCache(int segmentCount, int segmentCapacity) {
+        if (Integer.bitCount(segmentCount) != 1) {
+            throw new IllegalArgumentException("Segment count must be a power of two [segmentCount="
+                    + segmentCount + "]");
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity, evictions);
+        }
+        mask = segmentCount - 1;
+    }
+
+    private Segment getSegment(long hash) {
+        return segments[(int) (hash ^ (hash >>> 29)) & mask];
+    }
+
+    CachedPosition get(long canonicalHash) {
+        Segment segment = getSegment(canonicalHash);
+        CachedPosition position;
+        synchronized (segment) {
+            position = segment.get(canonicalHash);
+        }
+        (position == null ? misses : hits).increment();
+        return position;
+    }
+
+    void put(long canonicalHash, CachedPosition position) {
+        Segment segment = getSegment(canonicalHash);
+        synchronized (segment) {
+            segment.put(canonicalHash, position);
+        }
+    }
+
+    static final class CachedPosition {
+        private final int bestReply;
+
+        /**
+         * @param bestReply cell index in the canonical orientation.
+         */
+        CachedPosition(int bestReply) {
+            this.bestReply = bestReply;
+        }
+
+        int getBestReply() {
+            return bestReply;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Long, CachedPosition> {
+        private final int capacity;
+        private final LongAdder evictions;
+
+        private Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedPosition> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
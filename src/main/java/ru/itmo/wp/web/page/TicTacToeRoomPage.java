@@ -0,0 +1,95 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.AsyncTimeout;
+import ru.itmo.wp.web.exception.RedirectException;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+import ru.itmo.wp.web.page.TicTacToeRoomRegistry.Room;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Tic-tac-toe of two players on separate clients. The creator of a room plays the
+ * crosses, the first other visitor of its link the noughts, and anybody else watches.
+ * The page follows the game over the {@code events} stream, so nobody reloads it.
+ */
+@SuppressWarnings({"unused", "RedundantSuppression"})
+public class TicTacToeRoomPage {
+    private static final String PLAYER_ATTRIBUTE = "ticTacToe.player";
+    private static final long EVENTS_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static TicTacToeRoomRegistry getRegistry(HttpServletRequest request) {
+        return TicTacToeRoomRegistry.getInstance(request.getServletContext());
+    }
+
+    /**
+     * @return key of the player of the session, the same in every room.
+     */
+    private static String getPlayer(HttpServletRequest request) {
+        HttpSession session = request.getSession();
+        String player = (String) session.getAttribute(PLAYER_ATTRIBUTE);
+        if (player == null) {
+            player = TicTacToeRoomRegistry.newKey();
+            session.setAttribute(PLAYER_ATTRIBUTE, player);
+        }
+        return player;
+    }
+
+    private void action(HttpServletRequest request, Map<String, Object> view) {
+        Room room = getRegistry(request).getRoom(request.getParameter("id"));
+        if (room != null) {
+            view.put("roomId", room.getId());
+            String player = getPlayer(request);
+            String side = room.join(player);
+            if (side != null) {
+                view.put("side", side);
+                view.put("playerName", TicTacToeStatistics.getPlayerName(player));
+            }
+            view.put("state", room.getState());
+        } else {
+            view.put("state", new State());
+        }
+    }
+
+    private void newRoom(HttpServletRequest request, Map<String, Object> view) {
+        int size = Math.max(State.MIN_SIZE, Math.min(State.MAX_SIZE,
+                TicTacToePage.getIntParameter(request, "size", State.DEFAULT_SIZE)));
+        int inRowCount = Math.max(State.MIN_SIZE, Math.min(size,
+                TicTacToePage.getIntParameter(request, "inRowCount", size)));
+        Room room = getRegistry(request).newRoom(size, inRowCount, getPlayer(request));
+        throw new RedirectException("TicTacToeRoom?id=" + room.getId());
+    }
+
+    private void onMove(HttpServletRequest request, Map<String, Object> view) {
+        Room room = getRegistry(request).getRoom(request.getParameter("id"));
+        if (room == null) {
+            throw new RedirectException("TicTacToeRoom");
+        }
+        int[] cell = TicTacToePage.getCellParameter(request);
+        if (cell != null) {
+            room.play(getPlayer(request), cell[0], cell[1]);
+        }
+        throw new RedirectException("TicTacToeRoom?id=" + room.getId());
+    }
+
+    /**
+     * Server-Sent Events of the room: a {@code state} event with the game now and
+     * after every change. Browsers reconnect by themselves when it times out.
+     */
+    @AsyncTimeout(EVENTS_TIMEOUT_MILLIS)
+    private void events(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Room room = getRegistry(request).getRoom(request.getParameter("id"));
+        if (room == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        room.subscribe(request.startAsync());
+    }
+}
@@ -0,0 +1,372 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Games of two players on separate clients, each in a {@link Room} found by a random
+ * id.
+ *
+ * <p>The id map is split into shards, each under its own lock, and a room is a
+ * monitor of its own: a move locks nothing but its room, so games on different rooms
+ * never wait for each other. Players are told of every change as a Server-Sent
+ * Event; the events of a room are queued under its lock, so every subscriber sees
+ * them in order, and are written without blocking whenever the client can take them.
+ *
+ * <p>Rooms nobody has touched or watched for {@link #ROOM_TTL_NANOS} are dropped when
+ * a new room is made in their shard.
+ */
+final class TicTacToeRoomRegistry {
+    private static final int SHARD_COUNT = 64;
+    private static final long ROOM_TTL_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+    private final TicTacToeMoveLog moveLog;
+
+    private TicTacToeRoomRegistry(TicTacToeMoveLog moveLog) {
+        this.moveLog = moveLog;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    static TicTacToeRoomRegistry getInstance(ServletContext servletContext) {
+        String attributeName = TicTacToeRoomRegistry.class.getName();
+        TicTacToeRoomRegistry instance = (TicTacToeRoomRegistry) servletContext.getAttribute(attributeName);
+        if (instance == null) {
+            synchronized (TicTacToeRoomRegistry.class) {
+                instance = (TicTacToeRoomRegistry) servletContext.getAttribute(attributeName);
+                if (instance == null) {
+                    instance = new TicTacToeRoomRegistry(TicTacToeMoveLog.getInstance(servletContext));
+                    servletContext.setAttribute(attributeName, instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return new random key, good both as a room id and as a player key.
+     */
+    static String newKey() {
+        byte[] bytes = new byte[12];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private Shard getShard(String id) {
+        int hash = id.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARD_COUNT - 1)];
+    }
+
+    /**
+     * @param crossesPlayer key of the player who takes the crosses.
+     */
+    Room newRoom(int size, int inRowCount, String crossesPlayer) {
+        State state = new State(size, inRowCount, false);
+        if (moveLog != null) {
+            moveLog.logStart(state);
+        }
+        Room room = new Room(newKey(), state, crossesPlayer, moveLog);
+        Shard shard = getShard(room.id);
+        synchronized (shard) {
+            shard.removeExpired(System.nanoTime());
+            shard.rooms.put(room.id, room);
+        }
+        return room;
+    }
+
+    /**
+     * @return room of the id or {@code null} if there is none.
+     */
+    Room getRoom(String id) {
+        if (id == null) {
+            return null;
+        }
+        Shard shard = getShard(id);
+        synchronized (shard) {
+            return shard.rooms.get(id);
+        }
+    }
+
+    private static final class Shard {
+        private final Map<String, Room> rooms = new HashMap<>();
+
+        private void removeExpired(long now) {
+            for (Iterator<Room> i = rooms.values().iterator(); i.hasNext(); ) {
+                Room room = i.next();
+                synchronized (room) {
+                    if (room.subscribers.isEmpty() && now - room.lastActivity > ROOM_TTL_NANOS) {
+                        i.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Game of two players and its watchers. All fields are guarded by the room itself.
+     */
+    static final class Room {
+        private final String id;
+        private final State state;
+        private int version;
+        private final String crossesPlayer;
+        private String noughtsPlayer;
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private long lastActivity = System.nanoTime();
+        private final TicTacToeMoveLog moveLog;
+
+        private Room(String id, State state, String crossesPlayer, TicTacToeMoveLog moveLog) {
+            this.id = id;
+            this.state = state;
+            this.crossesPlayer = crossesPlayer;
+            this.moveLog = moveLog;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * Seats the player at the noughts if nobody is there yet.
+         *
+         * @return "X" or "O" for a player of the room, {@code null} for a watcher.
+         */
+        String join(String player) {
+            Subscriber[] subscribers = null;
+            String side;
+            synchronized (this) {
+                lastActivity = System.nanoTime();
+                if (noughtsPlayer == null && !crossesPlayer.equals(player)) {
+                    noughtsPlayer = player;
+                    subscribers = publish();
+                }
+                side = getSide(player);
+            }
+            drain(subscribers);
+            return side;
+        }
+
+        private String getSide(String player) {
+            if (crossesPlayer.equals(player)) {
+                return "X";
+            }
+            return player.equals(noughtsPlayer) ? "O" : null;
+        }
+
+        /**
+         * @return copy of the game to show.
+         */
+        synchronized State getState() {
+            return state.copy();
+        }
+
+        /**
+         * Plays the move if it is the player's turn and tells everybody watching.
+         *
+         * @return whether the move was played.
+         */
+        boolean play(String player, int row, int column) {
+            Subscriber[] subscribers;
+            synchronized (this) {
+                lastActivity = System.nanoTime();
+                String side = getSide(player);
+                int fromVersion = state.getVersion();
+                if (noughtsPlayer == null || side == null || side.equals("X") != state.getCrossesMove()
+                        || !TicTacToePage.applyMove(state, row, column)) {
+                    return false;
+                }
+                TicTacToePage.recordMoves(moveLog, state, fromVersion, row * state.getSize() + column);
+                if (state.phase != TicTacToePage.Phase.RUNNING) {
+                    TicTacToeStatistics.SHARED.recordPlayers(state, crossesPlayer, noughtsPlayer);
+                }
+                subscribers = publish();
+            }
+            drain(subscribers);
+            return true;
+        }
+
+        /**
+         * Streams the room's events to the response of the context from now on,
+         * starting with the current game.
+         */
+        void subscribe(AsyncContext asyncContext) throws IOException {
+            ServletOutputStream out = asyncContext.getResponse().getOutputStream();
+            Subscriber subscriber = new Subscriber(this, asyncContext, out);
+            asyncContext.addListener(subscriber);
+            synchronized (this) {
+                lastActivity = System.nanoTime();
+                subscribers.add(subscriber);
+                subscriber.events.add(newEvent());
+            }
+            // Events are written once the container calls onWritePossible().
+            out.setWriteListener(subscriber);
+        }
+
+        private synchronized void unsubscribe(Subscriber subscriber) {
+            lastActivity = System.nanoTime();
+            subscribers.remove(subscriber);
+        }
+
+        /**
+         * Queues the current game to every subscriber, under the lock of the room.
+         *
+         * @return subscribers to drain after the lock is released.
+         */
+        private Subscriber[] publish() {
+            version++;
+            byte[] event = newEvent();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.events.add(event);
+            }
+            return subscribers.toArray(new Subscriber[0]);
+        }
+
+        private static void drain(Subscriber[] subscribers) {
+            if (subscribers != null) {
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.drain();
+                }
+            }
+        }
+
+        /**
+         * @return {@code state} event with the game as JSON, the board as a string of
+         * one character per cell, row by row: "X", "O" or ".".
+         */
+        private byte[] newEvent() {
+            int size = state.getSize();
+            StringBuilder cells = new StringBuilder(size * size);
+            for (int i = 0; i < size * size; i++) {
+                int stone = state.getStone(i);
+                cells.append(stone > 0 ? 'X' : stone < 0 ? 'O' : '.');
+            }
+            return ("event: state\ndata: {\"version\":" + version
+                    + ",\"phase\":\"" + state.getPhase()
+                    + "\",\"crossesMove\":" + state.getCrossesMove()
+                    + ",\"started\":" + (noughtsPlayer != null)
+                    + ",\"cells\":\"" + cells + "\"}\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Event stream of one client: events wait in a queue and are written only while
+     * the output stream is ready, so a slow client never blocks the room.
+     */
+    private static final class Subscriber implements WriteListener, AsyncListener {
+        private final Room room;
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final Queue<byte[]> events = new ConcurrentLinkedQueue<>();
+        private boolean ready;
+        private boolean flushed = true;
+        private boolean closed;
+
+        private Subscriber(Room room, AsyncContext asyncContext, ServletOutputStream out) {
+            this.room = room;
+            this.asyncContext = asyncContext;
+            this.out = out;
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (!ready || closed) {
+                    return;
+                }
+                try {
+                    while (out.isReady()) {
+                        byte[] event = events.poll();
+                        if (event == null) {
+                            if (flushed) {
+                                return;
+                            }
+                            flushed = true;
+                            out.flush();
+                        } else {
+                            out.write(event);
+                            flushed = false;
+                        }
+                    }
+                    return;
+                } catch (IOException | IllegalStateException ignored) {
+                    // Closed below, out of the lock.
+                }
+            }
+            close();
+        }
+
+        /**
+         * Never called under the lock of the subscriber, which is taken under the lock of the room.
+         */
+        private void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            room.unsubscribe(this);
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ignored) {
+                // Already completed by the container.
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            synchronized (this) {
+                ready = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            synchronized (this) {
+                closed = true;
+            }
+            room.unsubscribe(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // No operations.
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletContext;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Signed, URL-safe token carrying a whole game, used instead of the session in the
+ * stateless mode of {@link TicTacToePage}: the compact form of the state followed
+ * by a truncated HMAC-SHA256 of it, in unpadded base64url.
+ *
+ * <p>The key is the {@code ticTacToe.tokenKey} context parameter. Without it a
+ * random key is made at start, and tokens are only accepted by the node that
+ * issued them.
+ */
+final class TicTacToeStateToken {
+    static final String KEY_PARAMETER = "ticTacToe.tokenKey";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_SIZE = 16;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    private TicTacToeStateToken(byte[] key) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    static TicTacToeStateToken getInstance(ServletContext servletContext) {
+        String attributeName = TicTacToeStateToken.class.getName();
+        TicTacToeStateToken instance = (TicTacToeStateToken) servletContext.getAttribute(attributeName);
+        if (instance == null) {
+            synchronized (TicTacToeStateToken.class) {
+                instance = (TicTacToeStateToken) servletContext.getAttribute(attributeName);
+                if (instance == null) {
+                    String key = servletContext.getInitParameter(KEY_PARAMETER);
+                    byte[] keyBytes;
+                    if (key == null || key.isEmpty()) {
+                        keyBytes = new byte[32];
+                        new SecureRandom().nextBytes(keyBytes);
+                    } else {
+                        keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                    }
+                    instance = new TicTacToeStateToken(keyBytes);
+                    servletContext.setAttribute(attributeName, instance);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't create " + ALGORITHM, e);
+        }
+    }
+
+    private byte[] sign(byte[] bytes, int length) {
+        Mac mac = macs.get();
+        mac.update(bytes, 0, length);
+        return Arrays.copyOf(mac.doFinal(), SIGNATURE_SIZE);
+    }
+
+    String encode(State state) {
+        byte[] stateBytes = state.toBytes();
+        byte[] bytes = Arrays.copyOf(stateBytes, stateBytes.length + SIGNATURE_SIZE);
+        System.arraycopy(sign(stateBytes, stateBytes.length), 0, bytes, stateBytes.length, SIGNATURE_SIZE);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return state of the token or {@code null} if the token is missing, malformed or not signed by us.
+     */
+    State decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length <= SIGNATURE_SIZE) {
+            return null;
+        }
+
+        int length = bytes.length - SIGNATURE_SIZE;
+        byte[] signature = Arrays.copyOfRange(bytes, length, bytes.length);
+        if (!MessageDigest.isEqual(signature, sign(bytes, length))) {
+            return null;
+        }
+        try {
+            return State.fromBytes(Arrays.copyOf(bytes, length));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
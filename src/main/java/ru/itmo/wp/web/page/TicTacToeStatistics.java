@@ -0,0 +1,401 @@
+package ru.itmo.wp.web.page;
+
+import ru.itmo.wp.web.page.TicTacToePage.Phase;
+import ru.itmo.wp.web.page.TicTacToePage.State;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of finished games by side, board variant and opening move, and of the
+ * games of rooms by player.
+ *
+ * <p>A result is counted in {@link LongAdder}s of its board variant, one per
+ * opponent and outcome and one per opening cell and outcome, so games finishing at
+ * once on many threads don't contend. A game of a room is also counted in the
+ * adders of both its players, found by their keys; only rooms know who plays, so
+ * other games have no player. Up to {@value #MAX_PLAYER_COUNT} players are counted,
+ * later ones are left out of the leaderboard.
+ *
+ * <p>Readers never sum the counters themselves: they get the latest immutable
+ * {@link Snapshot}, which a background thread makes again from the counters every
+ * {@value #SNAPSHOT_INTERVAL_MILLIS} ms, so a read is a volatile read whatever the
+ * number of games and players. A snapshot may miss the games that finished while it
+ * was made. The thread runs while the application is up, started and stopped by
+ * {@link Listener}; without it the snapshot stays empty.
+ */
+public final class TicTacToeStatistics {
+    private static final int SNAPSHOT_INTERVAL_MILLIS = 1000;
+    private static final int SIZE_COUNT = State.MAX_SIZE - State.MIN_SIZE + 1;
+    /**
+     * Outcomes are counted in the order crosses won, draw, noughts won.
+     */
+    private static final int OUTCOME_COUNT = 3;
+    private static final int TOP_OPENING_COUNT = 10;
+    private static final int RECENT_GAME_COUNT = 4096;
+    private static final int MAX_PLAYER_COUNT = 10000;
+    private static final int TOP_PLAYER_COUNT = 20;
+
+    static final TicTacToeStatistics SHARED = new TicTacToeStatistics();
+
+    private final AtomicReferenceArray<Variant> variants = new AtomicReferenceArray<>(SIZE_COUNT * SIZE_COUNT);
+    /**
+     * Ids of recently finished games by their low bits: the last move of a game in a
+     * token may be submitted more than once, and is then counted once.
+     */
+    private final AtomicLongArray recentGameIds = new AtomicLongArray(RECENT_GAME_COUNT);
+    /**
+     * Players of rooms by their keys.
+     */
+    private final Map<String, Player> players = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = new Snapshot(0, 0,
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    /**
+     * Thread that publishes the snapshots, guarded by {@code this}.
+     */
+    private ScheduledExecutorService publisher;
+
+    private TicTacToeStatistics() {
+        // No operations.
+    }
+
+    /**
+     * Counts the result of a game that has just ended.
+     */
+    void recordResult(State state) {
+        long gameId = state.getGameId();
+        if (gameId != 0 && recentGameIds.getAndSet((int) gameId & (RECENT_GAME_COUNT - 1), gameId) == gameId) {
+            return;
+        }
+        int outcome = state.phase == Phase.WON_X ? 0 : (state.phase == Phase.DRAW ? 1 : 2);
+        Variant variant = getVariant(state.getSize(), state.getInRowCount());
+        variant.results[(state.getAgainstComputer() ? OUTCOME_COUNT : 0) + outcome].increment();
+        int firstMove = state.getFirstMove();
+        if (firstMove >= 0) {
+            variant.openings[firstMove * OUTCOME_COUNT + outcome].increment();
+        }
+    }
+
+    /**
+     * Counts the result of a game of a room that has just ended for both its players,
+     * once per game: the game itself is counted by {@link #recordResult(State)}.
+     *
+     * @param crossesPlayer key of the player of the crosses.
+     * @param noughtsPlayer key of the player of the noughts.
+     */
+    void recordPlayers(State state, String crossesPlayer, String noughtsPlayer) {
+        int outcome = state.phase == Phase.WON_X ? 0 : (state.phase == Phase.DRAW ? 1 : 2);
+        Player crosses = getPlayer(crossesPlayer);
+        if (crosses != null) {
+            crosses.results[outcome].increment();
+        }
+        Player noughts = getPlayer(noughtsPlayer);
+        if (noughts != null) {
+            noughts.results[OUTCOME_COUNT - 1 - outcome].increment();
+        }
+    }
+
+    /**
+     * @return player of the key, {@code null} if there are too many players to count another one.
+     */
+    private Player getPlayer(String key) {
+        Player player = players.get(key);
+        if (player == null && players.size() < MAX_PLAYER_COUNT) {
+            player = players.computeIfAbsent(key, k -> new Player(getPlayerName(k)));
+        }
+        return player;
+    }
+
+    /**
+     * @return name of the player of the key on the leaderboard: the key itself is a
+     * secret of the player's session, so the name is a hash of it.
+     */
+    static String getPlayerName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return String.format("Player %02x%02x%02x%02x", digest[0], digest[1], digest[2], digest[3]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private Variant getVariant(int size, int inRowCount) {
+        int index = (size - State.MIN_SIZE) * SIZE_COUNT + inRowCount - State.MIN_SIZE;
+        Variant variant = variants.get(index);
+        if (variant == null) {
+            variants.compareAndSet(index, null, new Variant(size, inRowCount));
+            variant = variants.get(index);
+        }
+        return variant;
+    }
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private synchronized void startPublishing() {
+        if (publisher != null) {
+            return;
+        }
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ticTacToe-statistics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleWithFixedDelay(this::publish, 0, SNAPSHOT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopPublishing() {
+        if (publisher != null) {
+            publisher.shutdown();
+            publisher = null;
+        }
+    }
+
+    /**
+     * Only ever called on the publisher thread.
+     */
+    private void publish() {
+        snapshot = newSnapshot(snapshot.number + 1);
+    }
+
+    private Snapshot newSnapshot(long number) {
+        long[] sides = new long[2 * OUTCOME_COUNT];
+        List<Row> variantRows = new ArrayList<>();
+        List<Row> openingRows = new ArrayList<>();
+        for (int i = 0; i < variants.length(); i++) {
+            Variant variant = variants.get(i);
+            if (variant == null) {
+                continue;
+            }
+            long[] results = sum(variant.results, 0, variant.results.length);
+            for (int j = 0; j < results.length; j++) {
+                sides[j] += results[j];
+            }
+            String name = variant.size + "x" + variant.size + ", " + variant.inRowCount + " in a row";
+            variantRows.add(new Row(name, results[0] + results[3], results[1] + results[4],
+                    results[2] + results[5]));
+
+            List<Row> variantOpenings = new ArrayList<>();
+            for (int cell = 0; cell < variant.size * variant.size; cell++) {
+                long[] outcomes = sum(variant.openings, cell * OUTCOME_COUNT, OUTCOME_COUNT);
+                if (outcomes[0] + outcomes[1] + outcomes[2] > 0) {
+                    variantOpenings.add(new Row(name + ": row " + (cell / variant.size + 1) + ", column "
+                            + (cell % variant.size + 1), outcomes[0], outcomes[1], outcomes[2]));
+                }
+            }
+            variantOpenings.sort(Comparator.comparingLong(Row::getGames).reversed());
+            openingRows.addAll(variantOpenings.subList(0, Math.min(TOP_OPENING_COUNT, variantOpenings.size())));
+        }
+
+        List<Row> sideRows = new ArrayList<>();
+        sideRows.add(new Row("Crosses, two players", sides[0], sides[1], sides[2]));
+        sideRows.add(new Row("Noughts, two players", sides[2], sides[1], sides[0]));
+        sideRows.add(new Row("Player against the computer", sides[3], sides[4], sides[5]));
+        sideRows.add(new Row("Computer", sides[5], sides[4], sides[3]));
+        long games = 0;
+        for (long count : sides) {
+            games += count;
+        }
+
+        List<Row> leaderboard = new ArrayList<>();
+        for (Player player : players.values()) {
+            long[] results = sum(player.results, 0, OUTCOME_COUNT);
+            leaderboard.add(new Row(player.name, results[0], results[1], results[2]));
+        }
+        leaderboard.sort(Comparator.comparingLong(Row::getWins).reversed().thenComparingLong(Row::getLosses));
+        return new Snapshot(number, games, Collections.unmodifiableList(sideRows),
+                Collections.unmodifiableList(new ArrayList<>(
+                        leaderboard.subList(0, Math.min(TOP_PLAYER_COUNT, leaderboard.size())))),
+                Collections.unmodifiableList(variantRows), Collections.unmodifiableList(openingRows));
+    }
+
+    private static long[] sum(LongAdder[] counters, int from, int count) {
+        long[] sums = new long[count];
+        for (int i = 0; i < count; i++) {
+            sums[i] = counters[from + i].sum();
+        }
+        return sums;
+    }
+
+    private static LongAdder[] newCounters(int count) {
+        LongAdder[] counters = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static final class Variant {
+        private final int size;
+        private final int inRowCount;
+        /**
+         * Outcomes of two-player games followed by those of games against the computer.
+         */
+        private final LongAdder[] results = newCounters(2 * OUTCOME_COUNT);
+        /**
+         * Outcomes by the cell of the first move.
+         */
+        private final LongAdder[] openings;
+
+        private Variant(int size, int inRowCount) {
+            this.size = size;
+            this.inRowCount = inRowCount;
+            openings = newCounters(size * size * OUTCOME_COUNT);
+        }
+    }
+
+    private static final class Player {
+        private final String name;
+        /**
+         * Games won, drawn and lost.
+         */
+        private final LongAdder[] results = newCounters(OUTCOME_COUNT);
+
+        private Player(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Publishes the snapshots of {@link #SHARED} while the application is up.
+     */
+    public static final class Listener implements ServletContextListener {
+        @Override
+        public void contextInitialized(ServletContextEvent event) {
+            SHARED.startPublishing();
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent event) {
+            SHARED.stopPublishing();
+        }
+    }
+
+    /**
+     * Statistics as of one moment, never changed.
+     */
+    public static final class Snapshot {
+        private final long number;
+        private final long games;
+        private final List<Row> sides;
+        private final List<Row> players;
+        private final List<Row> variants;
+        private final List<Row> openings;
+
+        private Snapshot(long number, long games, List<Row> sides, List<Row> players, List<Row> variants,
+                         List<Row> openings) {
+            this.number = number;
+            this.games = games;
+            this.sides = sides;
+            this.players = players;
+            this.variants = variants;
+            this.openings = openings;
+        }
+
+        /**
+         * @return number of the snapshot, the next one has the next number.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        /**
+         * @return outcomes for each side, of two-player games and of games against the computer.
+         */
+        public List<Row> getSides() {
+            return sides;
+        }
+
+        /**
+         * @return outcomes of the players of rooms with the most wins, fewer losses first on a tie.
+         */
+        public List<Row> getPlayers() {
+            return players;
+        }
+
+        /**
+         * @return outcomes by board variant, wins are of the crosses.
+         */
+        public List<Row> getVariants() {
+            return variants;
+        }
+
+        /**
+         * @return outcomes of the most played first moves of every variant, wins are of the crosses.
+         */
+        public List<Row> getOpenings() {
+            return openings;
+        }
+    }
+
+    public static final class Row {
+        private final String name;
+        private final long wins;
+        private final long draws;
+        private final long losses;
+
+        private Row(String name, long wins, long draws, long losses) {
+            this.name = name;
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getGames() {
+            return wins + draws + losses;
+        }
+
+        public long getWins() {
+            return wins;
+        }
+
+        public long getDraws() {
+            return draws;
+        }
+
+        public long getLosses() {
+            return losses;
+        }
+
+        public double getWinRate() {
+            return getRate(wins);
+        }
+
+        public double getDrawRate() {
+            return getRate(draws);
+        }
+
+        public double getLossRate() {
+            return getRate(losses);
+        }
+
+        private double getRate(long count) {
+            long games = getGames();
+            return games == 0 ? 0 : (double) count / games;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.itmo.wp.web.page;
+
+import java.util.Map;
+
+/**
+ * Outcomes of all finished games, from the latest {@link TicTacToeStatistics.Snapshot}.
+ */
+@SuppressWarnings({"unused", "RedundantSuppression"})
+public class TicTacToeStatisticsPage {
+    private void action(Map<String, Object> view) {
+        TicTacToeStatistics.Snapshot statistics = TicTacToeStatistics.SHARED.getSnapshot();
+        view.put("statistics", statistics);
+        // The page is a function of the snapshot, so FrontServlet may reuse an earlier rendering.
+        view.put("renderCacheKey", Long.toString(statistics.getNumber()));
+    }
+}
@@ -0,0 +1,75 @@
+package ru.itmo.wp.web.page.internal;
+
+import ru.itmo.wp.web.Metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request metrics in the Prometheus text exposition format, for scraping.
+ *
+ * <p>Only clients on the loopback interface and those whose IP address is listed in
+ * the comma-separated {@value #ALLOWED_ADDRESSES_PARAMETER} context parameter get
+ * them, everybody else gets 403.
+ */
+@SuppressWarnings({"unused", "RedundantSuppression"})
+public class MetricsPage {
+    private static final String ALLOWED_ADDRESSES_PARAMETER = "metrics.allowedAddresses";
+
+    private void action(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!isAllowed(request)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-store");
+        PrintWriter writer = response.getWriter();
+        Metrics.getInstance().writePrometheus(writer);
+        writer.flush();
+    }
+
+    private static boolean isAllowed(HttpServletRequest request) {
+        InetAddress address = parseAddress(request.getRemoteAddr());
+        if (address == null) {
+            return false;
+        }
+        if (address.isLoopbackAddress()) {
+            return true;
+        }
+        String allowedAddresses = request.getServletContext().getInitParameter(ALLOWED_ADDRESSES_PARAMETER);
+        if (allowedAddresses != null) {
+            for (String allowedAddress : allowedAddresses.split(",")) {
+                if (address.equals(parseAddress(allowedAddress.trim()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return address of an IP literal, {@code null} for anything else, so no name is ever resolved.
+     */
+    private static InetAddress parseAddress(String literal) {
+        if (literal == null || literal.isEmpty()) {
+            return null;
+        }
+        if (literal.startsWith("[") && literal.endsWith("]")) {
+            literal = literal.substring(1, literal.length() - 1);
+        }
+        if (literal.indexOf(':') < 0 && !literal.matches("[0-9.]+")) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(literal);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}